@@ -1,11 +1,13 @@
 package com.jeffreys.common.ansi;
 
 import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.List;
 import javax.annotation.Nullable;
 
@@ -18,7 +20,66 @@ public class AnsiColorParser {
     BLUE,
     MAGENTA,
     CYAN,
-    WHITE
+    WHITE;
+
+    /** Number of entries in the xterm 256-color palette. */
+    public static final int PALETTE_SIZE = 256;
+
+    private static final int[] CUBE_LEVELS = {0x00, 0x5F, 0x87, 0xAF, 0xD7, 0xFF};
+
+    /** RGB of the 8 normal and then the 8 bright colors, as xterm renders them. */
+    private static final int[] REFERENCE_COLORS = {
+      0x000000, 0xCD0000, 0x00CD00, 0xCDCD00, 0x0000EE, 0xCD00CD, 0x00CDCD, 0xE5E5E5,
+      0x7F7F7F, 0xFF0000, 0x00FF00, 0xFFFF00, 0x5C5CFF, 0xFF00FF, 0x00FFFF, 0xFFFFFF,
+    };
+
+    private static final AnsiColor[] VALUES = values();
+
+    /**
+     * Returns the color for an index into the xterm 256-color palette (as sent by {@code
+     * ESC[38;5;nm}). Bright colors fold onto their normal color, and the color cube and gray ramp
+     * fold onto whichever of the 8 colors is nearest.
+     */
+    public static AnsiColor fromPaletteIndex(int index) {
+      checkElementIndex(index, PALETTE_SIZE);
+      if (index < 16) {
+        return VALUES[index % 8];
+      }
+      if (index < 232) {
+        int cube = index - 16;
+        return fromRgb(
+            CUBE_LEVELS[cube / 36], CUBE_LEVELS[(cube / 6) % 6], CUBE_LEVELS[cube % 6]);
+      }
+      int gray = 8 + 10 * (index - 232);
+      return fromRgb(gray, gray, gray);
+    }
+
+    /**
+     * Returns the nearest of the 8 colors to a 24-bit color (as sent by {@code ESC[38;2;r;g;bm}).
+     * Each component must be in {@code [0, 255]}.
+     */
+    public static AnsiColor fromRgb(int red, int green, int blue) {
+      checkArgument(
+          (red | green | blue) >= 0 && (red | green | blue) <= 0xFF,
+          "Invalid color %s, %s, %s",
+          red,
+          green,
+          blue);
+      int nearest = 0;
+      int nearestDistance = Integer.MAX_VALUE;
+      for (int i = 0; i < REFERENCE_COLORS.length; ++i) {
+        int rgb = REFERENCE_COLORS[i];
+        int dr = red - (rgb >>> 16);
+        int dg = green - ((rgb >>> 8) & 0xFF);
+        int db = blue - (rgb & 0xFF);
+        int distance = dr * dr + dg * dg + db * db;
+        if (distance < nearestDistance) {
+          nearest = i;
+          nearestDistance = distance;
+        }
+      }
+      return VALUES[nearest % 8];
+    }
   }
 
   public enum AnsiAttribute {
@@ -34,47 +95,253 @@ public class AnsiColorParser {
     CROSSED_OUT,
   }
 
-  private enum AnsiState {
-    NORMAL,
-    ESCAPE,
-    BRACKET,
-    VALUE_ACCUM,
-    WAIT_FOR_ANSI_END
+  private static final char ASCII_ESCAPE = 0x1B;
+  private static final int NO_CHARACTER = -1;
+
+  // States of the escape sequence DFA
+  private static final int STATE_NORMAL = 0;
+  private static final int STATE_ESCAPE = 1;
+  private static final int STATE_BRACKET = 2;
+  private static final int STATE_VALUE_ACCUM = 3;
+  private static final int STATE_WAIT_FOR_ANSI_END = 4;
+  private static final int STATE_COUNT = 5;
+
+  // Character classes, every character >= 128 is CLASS_OTHER
+  private static final int CLASS_OTHER = 0;
+  private static final int CLASS_ESCAPE = 1;
+  private static final int CLASS_BRACKET = 2;
+  private static final int CLASS_DIGIT = 3;
+  private static final int CLASS_SEMICOLON = 4;
+  private static final int CLASS_SGR_END = 5;
+  private static final int CLASS_ANSI_END = 6;
+  private static final int CLASS_COUNT = 7;
+
+  // Actions performed on a transition
+  private static final int ACTION_NONE = 0;
+  private static final int ACTION_EMIT = 1;
+  private static final int ACTION_START_VALUES = 2;
+  private static final int ACTION_CLEAR_VALUES = 3;
+  private static final int ACTION_ACCUMULATE_DIGIT = 4;
+  private static final int ACTION_PUSH_VALUE = 5;
+  private static final int ACTION_FINISH_SGR = 6;
+  private static final int ACTION_FINISH = 7;
+  private static final int ACTION_START_EMPTY_VALUE = 8;
+  private static final int ACTION_RESET_SGR = 9;
+
+  private static final int STATE_MASK = 0x7;
+  private static final int ACTION_SHIFT = 3;
+  private static final int ACTION_MASK = 0xF;
+
+  /** Maximum number of parameters tracked in a single escape sequence, extras are dropped. */
+  private static final int MAX_VALUES = 16;
+  /** Parameters are clamped to this, so absurdly long ones can't overflow into valid codes. */
+  private static final int MAX_VALUE = 9999;
+  /** Decodes each byte to the character with the same value, which is what ISO-8859-1 does. */
+  private static final char[] ISO_8859_1_DECODE_TABLE = createIso88591DecodeTable();
+
+  private static final byte[] CHARACTER_CLASSES = createCharacterClasses();
+  private static final byte[] TRANSITIONS = createTransitions();
+
+  private static char[] createIso88591DecodeTable() {
+    char[] table = new char[256];
+    for (int i = 0; i < table.length; ++i) {
+      table[i] = (char) i;
+    }
+    return table;
   }
 
-  private static final char ASCII_ESCAPE = 0x1B;
-  private static final ImmutableSet<Character> ANSI_ENDS =
-      ImmutableSet.<Character>builder()
-          .add('H')
-          .add('h')
-          .add('f')
-          .add('A')
-          .add('B')
-          .add('C')
-          .add('D')
-          .add('s')
-          .add('u')
-          .add('J')
-          .add('K')
-          .add('m')
-          .add('l')
-          .add('p')
-          .build();
+  private static byte[] createCharacterClasses() {
+    byte[] classes = new byte[128];
+    classes[ASCII_ESCAPE] = CLASS_ESCAPE;
+    classes['['] = CLASS_BRACKET;
+    classes[';'] = CLASS_SEMICOLON;
+    for (char c = '0'; c <= '9'; ++c) {
+      classes[c] = CLASS_DIGIT;
+    }
+    for (char c : "HhfABCDsuJKlp".toCharArray()) {
+      classes[c] = CLASS_ANSI_END;
+    }
+    classes['m'] = CLASS_SGR_END;
+    return classes;
+  }
+
+  private static void setTransition(
+      byte[] transitions, int state, int characterClass, int nextState, int action) {
+    transitions[state * CLASS_COUNT + characterClass] =
+        (byte) (nextState | (action << ACTION_SHIFT));
+  }
+
+  private static byte[] createTransitions() {
+    byte[] transitions = new byte[STATE_COUNT * CLASS_COUNT];
+    for (int characterClass = 0; characterClass < CLASS_COUNT; ++characterClass) {
+      // printable text, until an escape
+      setTransition(transitions, STATE_NORMAL, characterClass, STATE_NORMAL, ACTION_EMIT);
+      // a lone escape is consumed, and the character after it is printed
+      setTransition(transitions, STATE_ESCAPE, characterClass, STATE_NORMAL, ACTION_EMIT);
+      // not a parameter? how about waiting until an ending frame
+      setTransition(
+          transitions,
+          STATE_BRACKET,
+          characterClass,
+          STATE_WAIT_FOR_ANSI_END,
+          ACTION_CLEAR_VALUES);
+      // anything unexpected inside the parameters is ignored
+      setTransition(
+          transitions, STATE_VALUE_ACCUM, characterClass, STATE_VALUE_ACCUM, ACTION_NONE);
+      setTransition(
+          transitions,
+          STATE_WAIT_FOR_ANSI_END,
+          characterClass,
+          STATE_WAIT_FOR_ANSI_END,
+          ACTION_NONE);
+    }
+
+    setTransition(transitions, STATE_NORMAL, CLASS_ESCAPE, STATE_ESCAPE, ACTION_NONE);
+    setTransition(transitions, STATE_ESCAPE, CLASS_BRACKET, STATE_BRACKET, ACTION_NONE);
+    setTransition(
+        transitions, STATE_BRACKET, CLASS_DIGIT, STATE_VALUE_ACCUM, ACTION_START_VALUES);
+    // an omitted parameter is a zero, so ESC[;1m is ESC[0;1m and ESC[m is ESC[0m
+    setTransition(
+        transitions, STATE_BRACKET, CLASS_SEMICOLON, STATE_VALUE_ACCUM, ACTION_START_EMPTY_VALUE);
+    setTransition(transitions, STATE_BRACKET, CLASS_SGR_END, STATE_NORMAL, ACTION_RESET_SGR);
+    setTransition(transitions, STATE_BRACKET, CLASS_ANSI_END, STATE_NORMAL, ACTION_NONE);
+    setTransition(
+        transitions, STATE_VALUE_ACCUM, CLASS_DIGIT, STATE_VALUE_ACCUM, ACTION_ACCUMULATE_DIGIT);
+    setTransition(
+        transitions, STATE_VALUE_ACCUM, CLASS_SEMICOLON, STATE_VALUE_ACCUM, ACTION_PUSH_VALUE);
+    setTransition(transitions, STATE_VALUE_ACCUM, CLASS_SGR_END, STATE_NORMAL, ACTION_FINISH_SGR);
+    setTransition(transitions, STATE_VALUE_ACCUM, CLASS_ANSI_END, STATE_NORMAL, ACTION_FINISH);
+    setTransition(
+        transitions, STATE_WAIT_FOR_ANSI_END, CLASS_ESCAPE, STATE_ESCAPE, ACTION_NONE);
+    setTransition(
+        transitions, STATE_WAIT_FOR_ANSI_END, CLASS_SGR_END, STATE_NORMAL, ACTION_NONE);
+    setTransition(
+        transitions, STATE_WAIT_FOR_ANSI_END, CLASS_ANSI_END, STATE_NORMAL, ACTION_NONE);
+    return transitions;
+  }
+
+  private static final int COLOR_BITS = 3;
+  private static final int COLOR_MASK = (1 << COLOR_BITS) - 1;
+  private static final int BACKGROUND_SHIFT = COLOR_BITS;
+  private static final int ATTRIBUTE_SHIFT = 2 * COLOR_BITS;
+  private static final int ATTRIBUTE_MASK = 0xF;
+
+  /**
+   * The colors and attribute of a character, without the character itself.
+   *
+   * <p>Every combination is created once up front and indexed by its packed value (see {@link
+   * AnsiColorParser#packAttribute}), so styles never need to be allocated and can be compared by
+   * identity.
+   */
+  public static final class AnsiStyle {
+    public static final int STYLE_COUNT = 640;
+
+    private static final AnsiStyle[] STYLES = createStyles();
+
+    private final AnsiColor foregroundColor;
+    private final AnsiColor backgroundColor;
+    private final AnsiAttribute attribute;
+    private final short packed;
+
+    private AnsiStyle(
+        AnsiColor foregroundColor, AnsiColor backgroundColor, AnsiAttribute attribute) {
+      this.foregroundColor = foregroundColor;
+      this.backgroundColor = backgroundColor;
+      this.attribute = attribute;
+      this.packed = pack(foregroundColor, backgroundColor, attribute);
+    }
+
+    /**
+     * Implements {@link AnsiColorParser#packAttribute}. This lives here so creating {@link
+     * #STYLES} does not initialize {@link AnsiColorParser}, whose own initialization needs {@link
+     * #STYLES}.
+     */
+    private static short pack(
+        AnsiColor foregroundColor, AnsiColor backgroundColor, AnsiAttribute attribute) {
+      return (short)
+          (foregroundColor.ordinal()
+              | (backgroundColor.ordinal() << BACKGROUND_SHIFT)
+              | (attribute.ordinal() << ATTRIBUTE_SHIFT));
+    }
+
+    private static AnsiStyle[] createStyles() {
+      AnsiStyle[] styles = new AnsiStyle[STYLE_COUNT];
+      for (AnsiAttribute attribute : AnsiAttribute.values()) {
+        for (AnsiColor backgroundColor : AnsiColor.values()) {
+          for (AnsiColor foregroundColor : AnsiColor.values()) {
+            AnsiStyle style = new AnsiStyle(foregroundColor, backgroundColor, attribute);
+            styles[style.packed] = style;
+          }
+        }
+      }
+      return styles;
+    }
+
+    public static AnsiStyle of(
+        AnsiColor foregroundColor, AnsiColor backgroundColor, AnsiAttribute attribute) {
+      return STYLES[pack(foregroundColor, backgroundColor, attribute)];
+    }
+
+    /** Returns the style for a value produced by {@link AnsiColorParser#packAttribute}. */
+    public static AnsiStyle fromPacked(int packed) {
+      return STYLES[checkElementIndex(packed, STYLE_COUNT)];
+    }
+
+    /** Returns white on black without any attribute. */
+    public static AnsiStyle getDefault() {
+      return DEFAULT_ANSI_STYLE;
+    }
+
+    public AnsiColor getForegroundColor() {
+      return foregroundColor;
+    }
+
+    public AnsiColor getBackgroundColor() {
+      return backgroundColor;
+    }
+
+    public AnsiAttribute getAttribute() {
+      return attribute;
+    }
+
+    public short getPacked() {
+      return packed;
+    }
+
+    @Override
+    public String toString() {
+      return "AnsiStyle{" + foregroundColor + " on " + backgroundColor + ", " + attribute + "}";
+    }
+  }
+
+  private static final AnsiStyle DEFAULT_ANSI_STYLE =
+      AnsiStyle.of(AnsiColor.WHITE, AnsiColor.BLACK, AnsiAttribute.NONE);
 
   @AutoValue
   public abstract static class AnsiCharacterAttribute {
     public abstract char getCharacter();
 
-    public abstract AnsiColor getForegroundColor();
+    public abstract AnsiStyle getStyle();
 
-    public abstract AnsiColor getBackgroundColor();
+    public AnsiColor getForegroundColor() {
+      return getStyle().getForegroundColor();
+    }
+
+    public AnsiColor getBackgroundColor() {
+      return getStyle().getBackgroundColor();
+    }
 
-    public abstract AnsiAttribute getAttribute();
+    public AnsiAttribute getAttribute() {
+      return getStyle().getAttribute();
+    }
 
     public static AnsiCharacterAttribute create(
         char c, AnsiColor foregroundColor, AnsiColor backgroundColor, AnsiAttribute attribute) {
-      return new AutoValue_AnsiColorParser_AnsiCharacterAttribute(
-          c, foregroundColor, backgroundColor, attribute);
+      return create(c, AnsiStyle.of(foregroundColor, backgroundColor, attribute));
+    }
+
+    public static AnsiCharacterAttribute create(char c, AnsiStyle style) {
+      return new AutoValue_AnsiColorParser_AnsiCharacterAttribute(c, style);
     }
 
     public static AnsiCharacterAttribute getDefault() {
@@ -83,140 +350,702 @@ public class AnsiColorParser {
   }
 
   private static final AnsiCharacterAttribute DEFAULT_ANSI_CHARACTER_ATTRIBUTE =
-      AnsiCharacterAttribute.create('\0', AnsiColor.WHITE, AnsiColor.BLACK, AnsiAttribute.NONE);
+      AnsiCharacterAttribute.create('\0', DEFAULT_ANSI_STYLE);
+
+  private static final AnsiColor[] ANSI_COLORS = AnsiColor.values();
+  private static final AnsiAttribute[] ANSI_ATTRIBUTES = AnsiAttribute.values();
+
+  /**
+   * Packs the foreground color, background color and attribute into a single {@code short}.
+   *
+   * <p>The foreground color occupies bits 0-2, the background color bits 3-5 and the attribute
+   * bits 6-9, so packed values range from 0 to {@link AnsiStyle#STYLE_COUNT} - 1.
+   */
+  public static short packAttribute(
+      AnsiColor foregroundColor, AnsiColor backgroundColor, AnsiAttribute attribute) {
+    return AnsiStyle.pack(foregroundColor, backgroundColor, attribute);
+  }
+
+  public static AnsiColor getPackedForegroundColor(short packedAttribute) {
+    return ANSI_COLORS[packedAttribute & COLOR_MASK];
+  }
+
+  public static AnsiColor getPackedBackgroundColor(short packedAttribute) {
+    return ANSI_COLORS[(packedAttribute >> BACKGROUND_SHIFT) & COLOR_MASK];
+  }
 
+  public static AnsiAttribute getPackedAttribute(short packedAttribute) {
+    return ANSI_ATTRIBUTES[(packedAttribute >> ATTRIBUTE_SHIFT) & ATTRIBUTE_MASK];
+  }
+
+  private static AnsiCharacterAttribute unpackAttribute(char c, short packedAttribute) {
+    return AnsiCharacterAttribute.create(c, AnsiStyle.STYLES[packedAttribute]);
+  }
+
+  /** A run of characters sharing the same colors and attribute, from {@link #getStartIndex}. */
   @AutoValue
+  public abstract static class AnsiAttributeRun {
+    public abstract int getStartIndex();
+
+    public abstract AnsiStyle getStyle();
+
+    public AnsiColor getForegroundColor() {
+      return getStyle().getForegroundColor();
+    }
+
+    public AnsiColor getBackgroundColor() {
+      return getStyle().getBackgroundColor();
+    }
+
+    public AnsiAttribute getAttribute() {
+      return getStyle().getAttribute();
+    }
+
+    public static AnsiAttributeRun create(
+        int startIndex,
+        AnsiColor foregroundColor,
+        AnsiColor backgroundColor,
+        AnsiAttribute attribute) {
+      return create(startIndex, AnsiStyle.of(foregroundColor, backgroundColor, attribute));
+    }
+
+    public static AnsiAttributeRun create(int startIndex, AnsiStyle style) {
+      checkArgument(startIndex >= 0, "startIndex must not be negative");
+      return new AutoValue_AnsiColorParser_AnsiAttributeRun(startIndex, style);
+    }
+  }
+
+  /** Accumulates packed attributes into runs, starting a new run when the attribute changes. */
+  private static final class AttributeRunBuilder {
+    private int[] runStarts;
+    private short[] runAttributes;
+    private int runCount = 0;
+
+    private AttributeRunBuilder(int expectedRuns) {
+      runStarts = new int[expectedRuns];
+      runAttributes = new short[expectedRuns];
+    }
+
+    private void add(int index, short packedAttribute) {
+      if (runCount > 0 && runAttributes[runCount - 1] == packedAttribute) {
+        return;
+      }
+      if (runCount == runStarts.length) {
+        int newCapacity = Math.max(2 * runCount, 1);
+        runStarts = Arrays.copyOf(runStarts, newCapacity);
+        runAttributes = Arrays.copyOf(runAttributes, newCapacity);
+      }
+      runStarts[runCount] = index;
+      runAttributes[runCount] = packedAttribute;
+      ++runCount;
+    }
+
+    private ImmutableParsedAnsiText build(String text) {
+      return new ImmutableParsedAnsiText(
+          text, Arrays.copyOf(runStarts, runCount), Arrays.copyOf(runAttributes, runCount));
+    }
+  }
+
+  /**
+   * Text with per character ANSI attributes.
+   *
+   * <p>Instances returned by the {@code create} methods and {@link #parseAnsi(String)} are
+   * immutable. Instances returned by {@link ParsedAnsiTextBuffer#asParsedAnsiText()} are views over
+   * the buffer, and are only valid until the buffer is parsed into again. Use {@link
+   * #immutableCopy()} to retain them.
+   */
   public abstract static class ParsedAnsiText {
+    ParsedAnsiText() {}
+
     public abstract String getText();
 
+    /**
+     * Returns the attribute of every character in {@link #getText()}.
+     *
+     * <p>Attributes are stored as runs, so this builds a new list on each call. Prefer {@link
+     * #getAttribute(int)} or {@link #getAttributeRuns()}.
+     */
     public abstract ImmutableList<AnsiCharacterAttribute> getAttributes();
 
+    /** Returns the attribute of the character at {@code index}. */
+    public abstract AnsiCharacterAttribute getAttribute(int index);
+
+    /** Returns the style of the character at {@code index}, without allocating. */
+    public abstract AnsiStyle getStyle(int index);
+
+    /** Returns the style of the first character, or {@link AnsiStyle#getDefault()} if empty. */
+    public abstract AnsiStyle getFirstStyleOrDefault();
+
+    /** Returns the attribute runs, in order. Empty text has no runs. */
+    public abstract ImmutableList<AnsiAttributeRun> getAttributeRuns();
+
     public static ParsedAnsiText create(String text, List<AnsiCharacterAttribute> attributes) {
       checkArgument(text.length() == attributes.size());
-      return new AutoValue_AnsiColorParser_ParsedAnsiText(text, ImmutableList.copyOf(attributes));
+      AttributeRunBuilder runBuilder = new AttributeRunBuilder(/* expectedRuns= */ 2);
+      for (int i = 0; i < attributes.size(); ++i) {
+        runBuilder.add(i, attributes.get(i).getStyle().getPacked());
+      }
+      return runBuilder.build(text);
     }
 
     public AnsiCharacterAttribute getFirstAttributeOrDefault() {
-      if (getAttributes().isEmpty()) {
+      if (getText().isEmpty()) {
         return DEFAULT_ANSI_CHARACTER_ATTRIBUTE;
       }
 
-      return getAttributes().get(0);
+      return getAttribute(0);
     }
 
+    /** Creates text where every character has {@code attribute}'s style, as a single run. */
     public static ParsedAnsiText create(String text, AnsiCharacterAttribute attribute) {
+      return create(text, attribute.getStyle());
+    }
+
+    /** Creates text where every character has {@code style}, as a single run. */
+    public static ParsedAnsiText create(String text, AnsiStyle style) {
+      if (text.isEmpty()) {
+        return new ImmutableParsedAnsiText(text, NO_RUN_STARTS, NO_RUN_ATTRIBUTES);
+      }
+      return new ImmutableParsedAnsiText(text, new int[] {0}, new short[] {style.getPacked()});
+    }
+
+    public static ParsedAnsiText create(String text) {
+      return create(text, DEFAULT_ANSI_STYLE);
+    }
+
+    /** Returns an immutable copy of this text, or {@code this} if it is already immutable. */
+    public abstract ParsedAnsiText immutableCopy();
+
+    @Override
+    public boolean equals(Object o) {
+      if (o == this) {
+        return true;
+      }
+      if (!(o instanceof ParsedAnsiText)) {
+        return false;
+      }
+      ParsedAnsiText that = (ParsedAnsiText) o;
+      return getText().equals(that.getText())
+          && getAttributeRuns().equals(that.getAttributeRuns());
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * getText().hashCode() + getAttributeRuns().hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "ParsedAnsiText{text=" + getText() + ", attributeRuns=" + getAttributeRuns() + "}";
+    }
+  }
+
+  private static final int[] NO_RUN_STARTS = new int[0];
+  private static final short[] NO_RUN_ATTRIBUTES = new short[0];
+
+  /** Stores attributes as parallel arrays of run start indices and packed attributes. */
+  private static final class ImmutableParsedAnsiText extends ParsedAnsiText {
+    private final String text;
+    private final int[] runStarts;
+    private final short[] runAttributes;
+
+    private ImmutableParsedAnsiText(String text, int[] runStarts, short[] runAttributes) {
+      this.text = text;
+      this.runStarts = runStarts;
+      this.runAttributes = runAttributes;
+    }
+
+    @Override
+    public String getText() {
+      return text;
+    }
+
+    @Override
+    public ImmutableList<AnsiCharacterAttribute> getAttributes() {
       ImmutableList.Builder<AnsiCharacterAttribute> builder =
           ImmutableList.builderWithExpectedSize(text.length());
-      for (char c : text.toCharArray()) {
-        builder.add(
-            AnsiCharacterAttribute.create(
-                c,
-                attribute.getForegroundColor(),
-                attribute.getBackgroundColor(),
-                attribute.getAttribute()));
+      for (int run = 0; run < runStarts.length; ++run) {
+        int end = run + 1 < runStarts.length ? runStarts[run + 1] : text.length();
+        for (int i = runStarts[run]; i < end; ++i) {
+          builder.add(unpackAttribute(text.charAt(i), runAttributes[run]));
+        }
       }
-      return new AutoValue_AnsiColorParser_ParsedAnsiText(text, builder.build());
+      return builder.build();
     }
 
-    public static ParsedAnsiText create(String text) {
-      return create(text, DEFAULT_ANSI_CHARACTER_ATTRIBUTE);
+    @Override
+    public AnsiCharacterAttribute getAttribute(int index) {
+      checkElementIndex(index, text.length());
+      return unpackAttribute(text.charAt(index), runAttributes[findRun(index)]);
+    }
+
+    @Override
+    public AnsiCharacterAttribute getFirstAttributeOrDefault() {
+      if (text.isEmpty()) {
+        return DEFAULT_ANSI_CHARACTER_ATTRIBUTE;
+      }
+      return unpackAttribute(text.charAt(0), runAttributes[0]);
+    }
+
+    @Override
+    public AnsiStyle getStyle(int index) {
+      checkElementIndex(index, text.length());
+      return AnsiStyle.STYLES[runAttributes[findRun(index)]];
+    }
+
+    @Override
+    public AnsiStyle getFirstStyleOrDefault() {
+      if (text.isEmpty()) {
+        return DEFAULT_ANSI_STYLE;
+      }
+      return AnsiStyle.STYLES[runAttributes[0]];
+    }
+
+    @Override
+    public ImmutableList<AnsiAttributeRun> getAttributeRuns() {
+      ImmutableList.Builder<AnsiAttributeRun> builder =
+          ImmutableList.builderWithExpectedSize(runStarts.length);
+      for (int run = 0; run < runStarts.length; ++run) {
+        builder.add(AnsiAttributeRun.create(runStarts[run], AnsiStyle.STYLES[runAttributes[run]]));
+      }
+      return builder.build();
+    }
+
+    @Override
+    public ParsedAnsiText immutableCopy() {
+      return this;
+    }
+
+    private int findRun(int index) {
+      int run = Arrays.binarySearch(runStarts, index);
+      // a miss returns (-(insertion point) - 1), and the run containing index is just before it
+      return run >= 0 ? run : -run - 2;
     }
   }
 
-  private final ArrayList<Integer> values = new ArrayList<>();
+  /**
+   * Reusable output of {@link AnsiColorParser#parseAnsi(CharSequence, ParsedAnsiTextBuffer)}.
+   *
+   * <p>Holds the visible text and the packed attribute (see {@link #packAttribute}) of each
+   * character. Once the arrays have grown to fit the longest line, parsing into the buffer
+   * allocates nothing.
+   */
+  public static final class ParsedAnsiTextBuffer {
+    private char[] text;
+    private short[] attributes;
+    private int length = 0;
+    private final BufferView view = new BufferView();
+
+    public ParsedAnsiTextBuffer() {
+      this(/* initialCapacity= */ 256);
+    }
+
+    public ParsedAnsiTextBuffer(int initialCapacity) {
+      checkArgument(initialCapacity > 0, "initialCapacity must be positive");
+      text = new char[initialCapacity];
+      attributes = new short[initialCapacity];
+    }
+
+    public int length() {
+      return length;
+    }
+
+    public char charAt(int index) {
+      checkElementIndex(index, length);
+      return text[index];
+    }
+
+    /** Returns the packed attribute of the character at {@code index}. */
+    public short getPackedAttribute(int index) {
+      checkElementIndex(index, length);
+      return attributes[index];
+    }
+
+    /** Returns the style of the character at {@code index}. */
+    public AnsiStyle getStyle(int index) {
+      return AnsiStyle.STYLES[getPackedAttribute(index)];
+    }
+
+    /** Returns the backing text array, valid up to {@link #length()}. */
+    public char[] getTextArray() {
+      return text;
+    }
+
+    /** Returns the backing packed attribute array, valid up to {@link #length()}. */
+    public short[] getAttributeArray() {
+      return attributes;
+    }
+
+    /**
+     * Returns a {@link ParsedAnsiText} backed by this buffer. The same view is returned each time,
+     * and its contents change whenever the buffer is parsed into.
+     */
+    public ParsedAnsiText asParsedAnsiText() {
+      return view;
+    }
+
+    void clear() {
+      length = 0;
+      view.invalidate();
+    }
+
+    void append(char c, short packedAttribute) {
+      if (length == text.length) {
+        int newCapacity = 2 * text.length;
+        text = Arrays.copyOf(text, newCapacity);
+        attributes = Arrays.copyOf(attributes, newCapacity);
+      }
+      text[length] = c;
+      attributes[length] = packedAttribute;
+      ++length;
+    }
+
+    private final class BufferView extends ParsedAnsiText {
+      @Nullable private String cachedText;
+      @Nullable private ImmutableList<AnsiCharacterAttribute> cachedAttributes;
+
+      private void invalidate() {
+        cachedText = null;
+        cachedAttributes = null;
+      }
+
+      @Override
+      public String getText() {
+        if (cachedText == null) {
+          cachedText = new String(text, 0, length);
+        }
+        return cachedText;
+      }
+
+      @Override
+      public ImmutableList<AnsiCharacterAttribute> getAttributes() {
+        if (cachedAttributes == null) {
+          ImmutableList.Builder<AnsiCharacterAttribute> builder =
+              ImmutableList.builderWithExpectedSize(length);
+          for (int i = 0; i < length; ++i) {
+            builder.add(unpackAttribute(text[i], attributes[i]));
+          }
+          cachedAttributes = builder.build();
+        }
+        return cachedAttributes;
+      }
+
+      @Override
+      public AnsiCharacterAttribute getAttribute(int index) {
+        checkElementIndex(index, length);
+        return unpackAttribute(text[index], attributes[index]);
+      }
+
+      @Override
+      public AnsiCharacterAttribute getFirstAttributeOrDefault() {
+        if (length == 0) {
+          return DEFAULT_ANSI_CHARACTER_ATTRIBUTE;
+        }
+        return getAttribute(0);
+      }
+
+      @Override
+      public AnsiStyle getStyle(int index) {
+        return ParsedAnsiTextBuffer.this.getStyle(index);
+      }
+
+      @Override
+      public AnsiStyle getFirstStyleOrDefault() {
+        if (length == 0) {
+          return DEFAULT_ANSI_STYLE;
+        }
+        return AnsiStyle.STYLES[attributes[0]];
+      }
+
+      @Override
+      public ImmutableList<AnsiAttributeRun> getAttributeRuns() {
+        return immutableCopy().getAttributeRuns();
+      }
+
+      @Override
+      public ParsedAnsiText immutableCopy() {
+        AttributeRunBuilder runBuilder = new AttributeRunBuilder(/* expectedRuns= */ 2);
+        for (int i = 0; i < length; ++i) {
+          runBuilder.add(i, attributes[i]);
+        }
+        return runBuilder.build(getText());
+      }
+    }
+  }
 
-  private AnsiColor backgroundColor = AnsiColor.BLACK;
-  private AnsiColor foregroundColor = AnsiColor.WHITE;
-  private AnsiAttribute attribute = AnsiAttribute.NONE;
+  private final int[] values = new int[MAX_VALUES];
+  private int valueCount = 0;
   private int accumulator = 0;
-  private AnsiState state = AnsiState.NORMAL;
+  private int state = STATE_NORMAL;
+  private short packedAttribute = DEFAULT_ANSI_STYLE.getPacked();
 
   public AnsiColorParser() {}
 
   public ParsedAnsiText parseAnsi(String text) {
-    ImmutableList.Builder<AnsiCharacterAttribute> attributeBuilder =
-        ImmutableList.builderWithExpectedSize(text.length());
+    AttributeRunBuilder runBuilder = new AttributeRunBuilder(/* expectedRuns= */ 2);
     StringBuilder stringBuilder = new StringBuilder(text.length());
 
     for (int i = 0; i < text.length(); ++i) {
-      @Nullable AnsiCharacterAttribute ansiCharacterAttribute = parseAnsiCharacter(text.charAt(i));
-      if (ansiCharacterAttribute != null) {
-        stringBuilder.append(ansiCharacterAttribute.getCharacter());
-        attributeBuilder.add(ansiCharacterAttribute);
+      int c = parseAnsiCharacter(text.charAt(i));
+      if (c != NO_CHARACTER) {
+        runBuilder.add(stringBuilder.length(), packedAttribute);
+        stringBuilder.append((char) c);
       }
     }
-    return ParsedAnsiText.create(stringBuilder.toString(), attributeBuilder.build());
+    return runBuilder.build(stringBuilder.toString());
   }
 
-  @Nullable
-  private AnsiCharacterAttribute parseAnsiCharacter(char c) {
-    switch (state) {
-      case NORMAL:
-        if (c == ASCII_ESCAPE) {
-          state = AnsiState.ESCAPE;
-        } else {
-          return AnsiCharacterAttribute.create(c, foregroundColor, backgroundColor, attribute);
-        }
+  /**
+   * Parses {@code text} into {@code buffer}, replacing its previous contents.
+   *
+   * <p>Unlike {@link #parseAnsi(String)}, this does not allocate once {@code buffer} has grown to
+   * fit the line. Color state carries over between calls exactly as it does for {@link
+   * #parseAnsi(String)}.
+   *
+   * @return {@code buffer}'s {@link ParsedAnsiText} view
+   */
+  public ParsedAnsiText parseAnsi(CharSequence text, ParsedAnsiTextBuffer buffer) {
+    buffer.clear();
+
+    for (int i = 0; i < text.length(); ++i) {
+      int c = parseAnsiCharacter(text.charAt(i));
+      if (c != NO_CHARACTER) {
+        buffer.append((char) c, packedAttribute);
+      }
+    }
+    return buffer.asParsedAnsiText();
+  }
+
+  /**
+   * Parses raw, undecoded bytes into {@code buffer}, replacing its previous contents.
+   *
+   * <p>Each byte is decoded as ISO-8859-1, so this can run before the line is turned into a
+   * {@link String}.
+   *
+   * @return {@code buffer}'s {@link ParsedAnsiText} view
+   */
+  public ParsedAnsiText parseAnsi(
+      byte[] bytes, int offset, int length, ParsedAnsiTextBuffer buffer) {
+    return parseAnsi(bytes, offset, length, ISO_8859_1_DECODE_TABLE, buffer);
+  }
+
+  /**
+   * Parses raw bytes into {@code buffer} like {@link #parseAnsi(byte[], int, int,
+   * ParsedAnsiTextBuffer)}, decoding each byte to {@code decodeTable[b & 0xFF]} as it goes, which
+   * supports any single byte character set.
+   *
+   * @return {@code buffer}'s {@link ParsedAnsiText} view
+   */
+  public ParsedAnsiText parseAnsi(
+      byte[] bytes, int offset, int length, char[] decodeTable, ParsedAnsiTextBuffer buffer) {
+    checkPositionIndexes(offset, offset + length, bytes.length);
+    checkArgument(decodeTable.length == 256, "decodeTable must have an entry for every byte");
+    buffer.clear();
+
+    for (int i = offset; i < offset + length; ++i) {
+      int c = parseAnsiCharacter(decodeTable[bytes[i] & 0xFF]);
+      if (c != NO_CHARACTER) {
+        buffer.append((char) c, packedAttribute);
+      }
+    }
+    return buffer.asParsedAnsiText();
+  }
+
+  /**
+   * Parses the remaining bytes of {@code bytes} into {@code buffer}, like {@link
+   * #parseAnsi(byte[], int, int, ParsedAnsiTextBuffer)}. Consumes {@code bytes}.
+   */
+  public ParsedAnsiText parseAnsi(ByteBuffer bytes, ParsedAnsiTextBuffer buffer) {
+    buffer.clear();
+
+    while (bytes.hasRemaining()) {
+      int c = parseAnsiCharacter(bytes.get() & 0xFF);
+      if (c != NO_CHARACTER) {
+        buffer.append((char) c, packedAttribute);
+      }
+    }
+    return buffer.asParsedAnsiText();
+  }
+
+  /**
+   * Advances the DFA by {@code c}.
+   *
+   * @return the visible character, or {@link #NO_CHARACTER} if {@code c} was part of an escape
+   *     sequence
+   */
+  private int parseAnsiCharacter(int c) {
+    int characterClass = c < CHARACTER_CLASSES.length ? CHARACTER_CLASSES[c] : CLASS_OTHER;
+    int transition = TRANSITIONS[state * CLASS_COUNT + characterClass];
+    state = transition & STATE_MASK;
+
+    switch ((transition >>> ACTION_SHIFT) & ACTION_MASK) {
+      case ACTION_EMIT:
+        return c;
+      case ACTION_START_VALUES:
+        valueCount = 0;
+        accumulator = c - '0';
         break;
-      case ESCAPE:
-        if (c == '[') {
-          state = AnsiState.BRACKET;
-        } else {
-          // just consume the prior escape
-          state = AnsiState.NORMAL;
-          return AnsiCharacterAttribute.create(c, foregroundColor, backgroundColor, attribute);
-        }
+      case ACTION_CLEAR_VALUES:
+        valueCount = 0;
+        accumulator = 0;
         break;
-      case BRACKET:
+      case ACTION_START_EMPTY_VALUE:
+        valueCount = 0;
         accumulator = 0;
-        values.clear();
-        if (Character.isDigit(c)) {
-          state = AnsiState.VALUE_ACCUM;
-          accumulator = c - '0';
-        } else {
-          // something else? how about waiting until an ending frame
-          state = AnsiState.WAIT_FOR_ANSI_END;
-        }
+        pushValue(0);
         break;
-      case VALUE_ACCUM:
-        if (c == ';') {
-          values.add(accumulator);
-          accumulator = 0;
-        } else if (Character.isDigit(c)) {
-          accumulator = 10 * accumulator + (c - '0');
-        } else if (isAnsiSequenceFinished(c)) {
-          // push back last digit
-          if (accumulator > 0) {
-            values.add(accumulator);
-          }
-          // check if setting graphics mode
-          if (c == 'm') {
-            for (int val : values) {
-              if (val >= 30 && val <= 37) {
-                foregroundColor = AnsiColor.values()[val - 30];
-              } else if (val >= 40 && val <= 47) {
-                backgroundColor = AnsiColor.values()[val - 40];
-              } else if (val <= 8) {
-                attribute = AnsiAttribute.values()[val];
-              }
-            }
-          }
-          values.clear();
-          state = AnsiState.NORMAL;
-        }
+      case ACTION_ACCUMULATE_DIGIT:
+        accumulator = Math.min(10 * accumulator + (c - '0'), MAX_VALUE);
+        break;
+      case ACTION_PUSH_VALUE:
+        pushValue(accumulator);
+        accumulator = 0;
+        break;
+      case ACTION_FINISH_SGR:
+        // the last parameter is always present, an empty one being a zero
+        pushValue(accumulator);
+        setGraphicsMode();
+        valueCount = 0;
+        break;
+      case ACTION_RESET_SGR:
+        packedAttribute = DEFAULT_ANSI_STYLE.getPacked();
         break;
-      case WAIT_FOR_ANSI_END:
-        if (c == ASCII_ESCAPE) {
-          state = AnsiState.ESCAPE;
-        } else if (isAnsiSequenceFinished(c)) {
-          state = AnsiState.NORMAL;
+      case ACTION_FINISH:
+        valueCount = 0;
+        break;
+      default:
+        break;
+    }
+    return NO_CHARACTER;
+  }
+
+  private void pushValue(int value) {
+    if (valueCount < MAX_VALUES) {
+      values[valueCount++] = value;
+    }
+  }
+
+  private void setGraphicsMode() {
+    int packed = packedAttribute;
+    for (int i = 0; i < valueCount; ++i) {
+      int val = values[i];
+      if (val == 0) {
+        packed = DEFAULT_ANSI_STYLE.getPacked();
+      } else if (val < ANSI_ATTRIBUTES.length) {
+        packed = withAttribute(packed, val);
+      } else if (val >= 22 && val <= 29) {
+        if (turnsOffAttribute(val, attributeOrdinal(packed))) {
+          packed = withAttribute(packed, AnsiAttribute.NONE.ordinal());
         }
+      } else if (val >= 30 && val <= 37) {
+        packed = withForeground(packed, val - 30);
+      } else if (val == 38) {
+        packed = withForeground(packed, decodeExtendedColor(i + 1, foregroundOrdinal(packed)));
+        i += extendedColorLength(i + 1);
+      } else if (val == 39) {
+        packed = withForeground(packed, DEFAULT_ANSI_STYLE.getForegroundColor().ordinal());
+      } else if (val >= 40 && val <= 47) {
+        packed = withBackground(packed, val - 40);
+      } else if (val == 48) {
+        packed = withBackground(packed, decodeExtendedColor(i + 1, backgroundOrdinal(packed)));
+        i += extendedColorLength(i + 1);
+      } else if (val == 49) {
+        packed = withBackground(packed, DEFAULT_ANSI_STYLE.getBackgroundColor().ordinal());
+      } else if (val >= 90 && val <= 97) {
+        packed = withForeground(packed, val - 90);
+      } else if (val >= 100 && val <= 107) {
+        packed = withBackground(packed, val - 100);
+      }
+      // anything else is unsupported and ignored
+    }
+    packedAttribute = (short) packed;
+  }
+
+  /**
+   * Decodes the color of a {@code 38} or {@code 48} parameter whose arguments start at {@code
+   * index}, either {@code 5;n} or {@code 2;r;g;b}.
+   *
+   * @return the nearest {@link AnsiColor} ordinal, or {@code current} if malformed
+   */
+  private int decodeExtendedColor(int index, int current) {
+    if (index >= valueCount) {
+      return current;
+    }
+    if (values[index] == 5 && index + 1 < valueCount) {
+      int paletteIndex = values[index + 1];
+      return paletteIndex < AnsiColor.PALETTE_SIZE
+          ? AnsiColor.fromPaletteIndex(paletteIndex).ordinal()
+          : current;
+    }
+    if (values[index] == 2 && index + 3 < valueCount) {
+      int red = values[index + 1];
+      int green = values[index + 2];
+      int blue = values[index + 3];
+      return (red | green | blue) <= 0xFF
+          ? AnsiColor.fromRgb(red, green, blue).ordinal()
+          : current;
+    }
+    return current;
+  }
+
+  /** Returns how many parameters starting at {@code index} belong to a {@code 38} or {@code 48}. */
+  private int extendedColorLength(int index) {
+    if (index >= valueCount) {
+      return 0;
+    }
+    int length;
+    switch (values[index]) {
+      case 5:
+        length = 2;
+        break;
+      case 2:
+        length = 4;
         break;
+      default:
+        length = 1;
+        break;
+    }
+    return Math.min(length, valueCount - index);
+  }
+
+  /** Returns whether SGR {@code code} (22 to 29) turns off {@code attribute}. */
+  private static boolean turnsOffAttribute(int code, int attribute) {
+    switch (code) {
+      case 22:
+        return attribute == AnsiAttribute.BOLD.ordinal()
+            || attribute == AnsiAttribute.FAINT.ordinal();
+      case 25:
+        return attribute == AnsiAttribute.SLOW_BLINK.ordinal()
+            || attribute == AnsiAttribute.RAPID_BLINK.ordinal();
+      case 26:
+        return false;
+      default:
+        // 23 ITALIC, 24 UNDERLINE, 27 REVERSE_VIDEO, 28 CONCEAL and 29 CROSSED_OUT
+        return attribute == code - 20;
     }
-    return null;
   }
 
-  private static boolean isAnsiSequenceFinished(char c) {
-    return ANSI_ENDS.contains(c);
+  private static int withForeground(int packed, int color) {
+    return (packed & ~COLOR_MASK) | color;
+  }
+
+  private static int withBackground(int packed, int color) {
+    return (packed & ~(COLOR_MASK << BACKGROUND_SHIFT)) | (color << BACKGROUND_SHIFT);
+  }
+
+  private static int withAttribute(int packed, int attribute) {
+    return (packed & ~(ATTRIBUTE_MASK << ATTRIBUTE_SHIFT)) | (attribute << ATTRIBUTE_SHIFT);
+  }
+
+  private static int foregroundOrdinal(int packed) {
+    return packed & COLOR_MASK;
+  }
+
+  private static int backgroundOrdinal(int packed) {
+    return (packed >>> BACKGROUND_SHIFT) & COLOR_MASK;
+  }
+
+  private static int attributeOrdinal(int packed) {
+    return (packed >>> ATTRIBUTE_SHIFT) & ATTRIBUTE_MASK;
   }
 }
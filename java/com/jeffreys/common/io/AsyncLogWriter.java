@@ -0,0 +1,326 @@
+package com.jeffreys.common.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Writer} that hands text to a background thread, so writing a line never waits on the
+ * disk.
+ *
+ * <p>The background thread drains everything queued at once into a large buffer, and writes it
+ * out when the buffer fills up, when the flush interval has passed since the oldest unwritten
+ * text, on {@link #flush} and on {@link #close}. {@link #flush} and {@link #close} wait until
+ * everything written before them has reached the destination.
+ *
+ * <p>Writers block when the queue is full, which is counted in {@link #getMetrics}.
+ */
+public final class AsyncLogWriter extends Writer {
+  private static final int DEFAULT_QUEUE_CAPACITY = 4096;
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /** Asks the background thread to commit everything before it, then counts down. */
+  private static final class FlushRequest {
+    private final CountDownLatch done = new CountDownLatch(1);
+  }
+
+  private static final Object CLOSE = new Object();
+
+  /** Counters describing how the writer has behaved so far. */
+  @AutoValue
+  public abstract static class Metrics {
+    /** The number of chunks of text written. */
+    public abstract long getWrites();
+
+    /** The number of writes that had to wait because the queue was full. */
+    public abstract long getBlockedWrites();
+
+    /** The total time writers spent waiting for room in the queue. */
+    public abstract Duration getBlockedTime();
+
+    /** The number of times buffered text was flushed to the destination. */
+    public abstract long getCommits();
+
+    /** The most chunks of text the background thread found queued at once. */
+    public abstract int getMaxQueueDepth();
+
+    static Metrics create(
+        long writes, long blockedWrites, Duration blockedTime, long commits, int maxQueueDepth) {
+      return new AutoValue_AsyncLogWriter_Metrics(
+          writes, blockedWrites, blockedTime, commits, maxQueueDepth);
+    }
+  }
+
+  /** Builds an {@link AsyncLogWriter}. */
+  public static final class Builder {
+    private final OutputStream destination;
+    private final Charset charset;
+    private Duration flushInterval = Duration.ZERO;
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private Builder(OutputStream destination, Charset charset) {
+      this.destination = destination;
+      this.charset = charset;
+    }
+
+    /**
+     * Sets the longest text waits in the buffer before being written out. {@link Duration#ZERO},
+     * the default, only writes it out when the buffer fills up, on {@link #flush} and on {@link
+     * #close}.
+     */
+    public Builder setFlushInterval(Duration flushInterval) {
+      checkArgument(!flushInterval.isNegative(), "flushInterval cannot be negative");
+      this.flushInterval = flushInterval;
+      return this;
+    }
+
+    /** Sets how many chunks of text can be queued before writers block. */
+    public Builder setQueueCapacity(int queueCapacity) {
+      checkArgument(queueCapacity > 0, "queueCapacity must be positive");
+      this.queueCapacity = queueCapacity;
+      return this;
+    }
+
+    /** Sets how many characters are buffered before they are written out. */
+    public Builder setBufferSize(int bufferSize) {
+      checkArgument(bufferSize > 0, "bufferSize must be positive");
+      this.bufferSize = bufferSize;
+      return this;
+    }
+
+    /** Builds the writer and starts its background thread. */
+    public AsyncLogWriter build() {
+      AsyncLogWriter writer = new AsyncLogWriter(this);
+      new ThreadFactoryBuilder()
+          .setNameFormat("AsyncLogWriter-%d")
+          .setDaemon(true)
+          .build()
+          .newThread(writer::drain)
+          .start();
+      return writer;
+    }
+  }
+
+  private final BlockingQueue<Object> queue;
+  private final Writer destination;
+  private final long flushIntervalNanos;
+  private final CountDownLatch terminated = new CountDownLatch(1);
+
+  private final AtomicLong writes = new AtomicLong();
+  private final AtomicLong blockedWrites = new AtomicLong();
+  private final AtomicLong blockedNanos = new AtomicLong();
+  private final AtomicLong commits = new AtomicLong();
+  private volatile int maxQueueDepth;
+
+  /** The first failure writing to the destination, reported to writers from then on. */
+  @Nullable private volatile IOException failure;
+
+  private volatile boolean closed;
+
+  private AsyncLogWriter(Builder builder) {
+    this.queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+    this.destination =
+        new BufferedWriter(
+            new OutputStreamWriter(builder.destination, builder.charset), builder.bufferSize);
+    this.flushIntervalNanos = builder.flushInterval.toNanos();
+  }
+
+  public static Builder builder(OutputStream destination, Charset charset) {
+    return new Builder(destination, charset);
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    write(new String(cbuf, off, len));
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    write(off == 0 && len == str.length() ? str : str.substring(off, off + len));
+  }
+
+  @Override
+  public void write(String str) throws IOException {
+    checkOpen();
+    throwIfFailed();
+    writes.incrementAndGet();
+    enqueue(str);
+  }
+
+  /** Waits until everything written so far has been flushed to the destination. */
+  @Override
+  public void flush() throws IOException {
+    checkOpen();
+    FlushRequest request = new FlushRequest();
+    enqueue(request);
+    await(request.done);
+    throwIfFailed();
+  }
+
+  /** Flushes everything written so far, then stops the background thread and closes the stream. */
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    enqueue(CLOSE);
+    await(terminated);
+    throwIfFailed();
+  }
+
+  public Metrics getMetrics() {
+    return Metrics.create(
+        writes.get(),
+        blockedWrites.get(),
+        Duration.ofNanos(blockedNanos.get()),
+        commits.get(),
+        maxQueueDepth);
+  }
+
+  private void checkOpen() throws IOException {
+    if (closed) {
+      throw new IOException("AsyncLogWriter is closed");
+    }
+  }
+
+  private void enqueue(Object item) throws IOException {
+    if (queue.offer(item)) {
+      return;
+    }
+
+    blockedWrites.incrementAndGet();
+    long start = System.nanoTime();
+    try {
+      queue.put(item);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the log queue");
+    } finally {
+      blockedNanos.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  private static void await(CountDownLatch latch) throws InterruptedIOException {
+    try {
+      latch.await();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for the log to be written");
+    }
+  }
+
+  private void throwIfFailed() throws IOException {
+    IOException ex = failure;
+    if (ex != null) {
+      throw new IOException("Writing the log failed", ex);
+    }
+  }
+
+  /** Runs the background thread until {@link #CLOSE} is dequeued. */
+  private void drain() {
+    List<Object> batch = new ArrayList<>();
+    boolean dirty = false;
+    long flushDeadline = 0;
+
+    try {
+      while (true) {
+        Object first;
+        if (dirty && flushIntervalNanos > 0) {
+          first = queue.poll(flushDeadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } else {
+          first = queue.take();
+        }
+        if (first != null) {
+          batch.add(first);
+          queue.drainTo(batch);
+          maxQueueDepth = Math.max(maxQueueDepth, batch.size());
+        }
+
+        for (Object item : batch) {
+          if (item instanceof String) {
+            writeToDestination((String) item);
+            if (!dirty) {
+              dirty = true;
+              flushDeadline = System.nanoTime() + flushIntervalNanos;
+            }
+          } else if (item instanceof FlushRequest) {
+            dirty = commit(dirty);
+            ((FlushRequest) item).done.countDown();
+          } else if (item == CLOSE) {
+            commit(dirty);
+            return;
+          }
+        }
+        batch.clear();
+
+        if (dirty && flushIntervalNanos > 0 && System.nanoTime() - flushDeadline >= 0) {
+          dirty = commit(dirty);
+        }
+      }
+    } catch (InterruptedException ex) {
+      commit(dirty);
+    } finally {
+      try {
+        destination.close();
+      } catch (IOException ex) {
+        recordFailure(ex);
+      }
+      // release anyone still waiting on a flush that won't be processed
+      for (Object item : queue) {
+        if (item instanceof FlushRequest) {
+          ((FlushRequest) item).done.countDown();
+        }
+      }
+      terminated.countDown();
+    }
+  }
+
+  private void writeToDestination(String text) {
+    if (failure != null) {
+      return;
+    }
+    try {
+      destination.write(text);
+    } catch (IOException ex) {
+      recordFailure(ex);
+    }
+  }
+
+  /** Flushes the buffer if {@code dirty}, returning that the buffer is no longer dirty. */
+  private boolean commit(boolean dirty) {
+    if (dirty && failure == null) {
+      try {
+        destination.flush();
+        commits.incrementAndGet();
+      } catch (IOException ex) {
+        recordFailure(ex);
+      }
+    }
+    return false;
+  }
+
+  private void recordFailure(IOException ex) {
+    if (failure == null) {
+      failure = ex;
+    }
+  }
+}
@@ -0,0 +1,221 @@
+package com.jeffreys.common.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import javax.annotation.Nullable;
+
+/**
+ * Reads lines from a {@link ReadableByteChannel} in a single byte character set, such as CP437 or
+ * ISO-8859-1.
+ *
+ * <p>This is a much faster replacement for {@link java.util.Scanner#nextLine}: bytes are read into
+ * a direct buffer, split on {@code \n}, {@code \r\n} or {@code \r} by hand, and only decoded with a
+ * lookup table when looked at. {@link #nextLine(RawLineHandler)} skips decoding altogether, for
+ * callers that parse the bytes themselves. Not thread safe.
+ */
+public final class ChannelLineReader implements Closeable {
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+  private static final int INITIAL_LINE_CAPACITY = 256;
+
+  /** Receives the undecoded bytes of a line. */
+  @FunctionalInterface
+  public interface RawLineHandler<T> {
+    /**
+     * Handles the first {@code length} bytes of {@code bytes}, which are a line without its
+     * terminator. {@code bytes} is reused, and only valid during the call.
+     */
+    T handle(byte[] bytes, int length);
+  }
+
+  private final ReadableByteChannel channel;
+  private final ByteBuffer buffer;
+  private final Charset charset;
+  private final char[] decodeTable;
+  private final Line line = new Line();
+  /** Whether the last line ended with {@code \r}, so a following {@code \n} belongs to it. */
+  private boolean skipLineFeed;
+  private boolean endOfInput;
+
+  private ChannelLineReader(ReadableByteChannel channel, Charset charset, int bufferSize) {
+    checkArgument(bufferSize > 0, "bufferSize must be positive");
+    this.channel = channel;
+    this.charset = charset;
+    this.decodeTable = createDecodeTable(charset);
+    this.buffer = ByteBuffer.allocateDirect(bufferSize);
+    // start out empty, so the first read fills it
+    buffer.flip();
+  }
+
+  /**
+   * Creates a reader over {@code channel}.
+   *
+   * @throws IllegalArgumentException if {@code charset} doesn't decode every byte to exactly one
+   *     character
+   */
+  public static ChannelLineReader create(ReadableByteChannel channel, Charset charset) {
+    return new ChannelLineReader(channel, charset, DEFAULT_BUFFER_SIZE);
+  }
+
+  /** Like {@link #create(ReadableByteChannel, Charset)}, reading {@code bufferSize} at a time. */
+  public static ChannelLineReader create(
+      ReadableByteChannel channel, Charset charset, int bufferSize) {
+    return new ChannelLineReader(channel, charset, bufferSize);
+  }
+
+  /**
+   * Returns the character each byte value decodes to in {@code charset}.
+   *
+   * @throws IllegalArgumentException if {@code charset} doesn't decode every byte to exactly one
+   *     character
+   */
+  public static char[] createDecodeTable(Charset charset) {
+    checkArgument(
+        charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f,
+        "%s is not a single byte character set",
+        charset);
+    byte[] bytes = new byte[256];
+    for (int i = 0; i < bytes.length; ++i) {
+      bytes[i] = (byte) i;
+    }
+    char[] table = new String(bytes, charset).toCharArray();
+    checkArgument(
+        table.length == bytes.length, "%s is not a single byte character set", charset);
+    return table;
+  }
+
+  /**
+   * Returns the next line without its terminator, or null at the end of input.
+   *
+   * <p>The returned {@link CharSequence} is reused, and only valid until the next call. Use
+   * {@link #nextLine} to get a line that can be kept or handed to another thread.
+   */
+  @Nullable
+  public CharSequence readLine() throws IOException {
+    line.length = 0;
+    while (true) {
+      while (buffer.hasRemaining()) {
+        byte b = buffer.get();
+        if (skipLineFeed) {
+          skipLineFeed = false;
+          if (b == '\n') {
+            continue;
+          }
+        }
+
+        if (b == '\n') {
+          return line;
+        } else if (b == '\r') {
+          skipLineFeed = true;
+          return line;
+        }
+        line.append(b);
+      }
+
+      if (!fillBuffer()) {
+        // a final line without a terminator still counts
+        return line.length > 0 ? line : null;
+      }
+    }
+  }
+
+  /**
+   * Returns the next line as a {@link String}, behaving like {@link java.util.Scanner#nextLine}.
+   *
+   * @throws NoSuchElementException at the end of input
+   * @throws UncheckedIOException if reading fails
+   */
+  public String nextLine() {
+    return readNextLine().toString();
+  }
+
+  /**
+   * Hands the next line's undecoded bytes to {@code handler}, and returns what it returns. Behaves
+   * like {@link #nextLine()} otherwise.
+   *
+   * @throws NoSuchElementException at the end of input
+   * @throws UncheckedIOException if reading fails
+   */
+  public <T> T nextLine(RawLineHandler<T> handler) {
+    Line next = readNextLine();
+    return handler.handle(next.bytes, next.length);
+  }
+
+  private Line readNextLine() {
+    try {
+      if (readLine() == null) {
+        throw new NoSuchElementException("No line found");
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+    return line;
+  }
+
+  /** Reads more of the channel into the buffer, returning false at the end of input. */
+  private boolean fillBuffer() throws IOException {
+    if (endOfInput) {
+      return false;
+    }
+    buffer.clear();
+    int read;
+    do {
+      read = channel.read(buffer);
+    } while (read == 0);
+    buffer.flip();
+    if (read < 0) {
+      endOfInput = true;
+      return false;
+    }
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /** A growable line of undecoded bytes, viewed as a {@link CharSequence}. */
+  private final class Line implements CharSequence {
+    private byte[] bytes = new byte[INITIAL_LINE_CAPACITY];
+    private int length;
+
+    private void append(byte b) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, length * 2);
+      }
+      bytes[length++] = b;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      checkElementIndex(index, length);
+      return decodeTable[bytes[index] & 0xFF];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      checkPositionIndexes(start, end, length);
+      return new String(bytes, start, end - start, charset);
+    }
+
+    @Override
+    public String toString() {
+      return new String(bytes, 0, length, charset);
+    }
+  }
+}
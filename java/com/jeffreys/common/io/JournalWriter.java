@@ -0,0 +1,72 @@
+package com.jeffreys.common.io;
+
+import com.jeffreys.common.io.SegmentedLog.Direction;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A {@link Writer} that passes everything through to another writer, and records each line in a
+ * {@link SessionJournal} when it is flushed.
+ *
+ * <p>Lines are journaled on {@link #flush} rather than as they are written, since buffered text
+ * only goes out then, and the entries should be stamped with when it did.
+ *
+ * <p>Lines end with {@code \n}, and a {@code \r} before it is dropped, so {@code "a orc\r\n"} is
+ * journaled as {@code "a orc"}. Text after the last terminator waits for the rest of its line.
+ */
+public final class JournalWriter extends Writer {
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final SessionJournal journal;
+  private final Direction direction;
+  private final Writer delegate;
+
+  /** The text written since the last line journaled. */
+  private char[] pending = new char[INITIAL_CAPACITY];
+  private int pendingLength;
+
+  public JournalWriter(SessionJournal journal, Direction direction, Writer delegate) {
+    this.journal = journal;
+    this.direction = direction;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    delegate.write(cbuf, off, len);
+
+    if (pending.length - pendingLength < len) {
+      pending = Arrays.copyOf(pending, Math.max(pendingLength + len, 2 * pending.length));
+    }
+    System.arraycopy(cbuf, off, pending, pendingLength, len);
+    pendingLength += len;
+  }
+
+  @Override
+  public void flush() throws IOException {
+    // the lines are journaled once they're out, so nothing received before can answer them
+    delegate.flush();
+
+    int start = 0;
+    try {
+      for (int i = 0; i < pendingLength; ++i) {
+        if (pending[i] == '\n') {
+          int end = i > start && pending[i - 1] == '\r' ? i - 1 : i;
+          // past the line before recording it, so a failing listener doesn't see it twice
+          int lineStart = start;
+          start = i + 1;
+          journal.record(direction, pending, lineStart, end - lineStart);
+        }
+      }
+    } finally {
+      System.arraycopy(pending, start, pending, 0, pendingLength - start);
+      pendingLength -= start;
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    delegate.close();
+  }
+}
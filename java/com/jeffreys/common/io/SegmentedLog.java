@@ -0,0 +1,377 @@
+package com.jeffreys.common.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+import static com.google.common.base.Preconditions.checkState;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import javax.annotation.Nullable;
+
+/**
+ * An append only log of timestamped binary records, written into fixed size memory-mapped segment
+ * files that roll over as they fill up.
+ *
+ * <p>Segments are named {@code <base>.<number>.seg}, or {@code <base>.<number>.seg.gz} once closed
+ * if compression is enabled. A segment starts with an {@code int} holding how many of its bytes
+ * were written, header included, which is 0 until the segment is closed. The file keeps its mapped
+ * size, since it can't be truncated while the mapping is live. Each record is laid out as:
+ *
+ * <pre>
+ *   int   body length (timestamp + direction + payload), 0 marks the end of the segment
+ *   long  timestamp, in milliseconds since the epoch
+ *   byte  {@link Direction} ordinal
+ *   byte[] payload
+ * </pre>
+ *
+ * <p>The length is written last, so a record cut short by a crash is never read. Appending is a
+ * copy into the mapped segment, there is no system call until a segment rolls. Closed segments are
+ * compressed and retention is applied on a background thread, so rolling over never waits on
+ * them. Not thread safe. Use {@link SegmentedLogReader} to read the records back.
+ */
+public final class SegmentedLog implements Closeable {
+  /** Which way a record's payload travelled. */
+  public enum Direction {
+    INBOUND,
+    OUTBOUND;
+
+    private static final Direction[] VALUES = values();
+
+    static Direction fromOrdinal(int ordinal) {
+      return VALUES[ordinal];
+    }
+  }
+
+  static final int SEGMENT_HEADER_BYTES = Integer.BYTES;
+  static final int LENGTH_BYTES = Integer.BYTES;
+  static final int HEADER_BYTES = LENGTH_BYTES + Long.BYTES + 1;
+  static final String SEGMENT_SUFFIX = ".seg";
+  static final String COMPRESSED_SUFFIX = ".seg.gz";
+
+  private static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  /** Builds a {@link SegmentedLog}. */
+  public static final class Builder {
+    private final Path basePath;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int maxSegments = 0;
+    private long maxTotalBytes = 0;
+    private boolean compressClosedSegments = false;
+
+    private Builder(Path basePath) {
+      this.basePath = basePath;
+    }
+
+    /** Sets the size of each segment file, which limits the largest record. */
+    public Builder setSegmentSize(int segmentSize) {
+      checkArgument(segmentSize > SEGMENT_HEADER_BYTES + HEADER_BYTES, "segmentSize is too small");
+      this.segmentSize = segmentSize;
+      return this;
+    }
+
+    /**
+     * Sets how many closed segments to keep, deleting the oldest beyond that. 0 keeps all of them.
+     */
+    public Builder setMaxSegments(int maxSegments) {
+      checkArgument(maxSegments >= 0, "maxSegments cannot be negative");
+      this.maxSegments = maxSegments;
+      return this;
+    }
+
+    /**
+     * Sets how many bytes of closed segments to keep, deleting the oldest beyond that. 0 keeps all
+     * of them.
+     */
+    public Builder setMaxTotalBytes(long maxTotalBytes) {
+      checkArgument(maxTotalBytes >= 0, "maxTotalBytes cannot be negative");
+      this.maxTotalBytes = maxTotalBytes;
+      return this;
+    }
+
+    /** Sets whether segments are gzipped once they are full. */
+    public Builder setCompressClosedSegments(boolean compressClosedSegments) {
+      this.compressClosedSegments = compressClosedSegments;
+      return this;
+    }
+
+    /** Opens a new segment, numbered after any segments left over from earlier sessions. */
+    public SegmentedLog build() throws IOException {
+      return new SegmentedLog(this);
+    }
+  }
+
+  /** A segment file and its number, which orders segments. */
+  static final class Segment {
+    private static final Comparator<Segment> BY_NUMBER =
+        Comparator.comparingLong(segment -> segment.number);
+
+    final Path path;
+    final long number;
+    final boolean compressed;
+
+    private Segment(Path path, long number, boolean compressed) {
+      this.path = path;
+      this.number = number;
+      this.compressed = compressed;
+    }
+  }
+
+  private final Path basePath;
+  private final int segmentSize;
+  private final int maxSegments;
+  private final long maxTotalBytes;
+  private final boolean compressClosedSegments;
+  /** Compresses closed segments and applies retention, one segment at a time in order. */
+  private final ExecutorService background =
+      Executors.newSingleThreadExecutor(
+          new ThreadFactoryBuilder().setNameFormat("SegmentedLog-%d").setDaemon(true).build());
+
+  /** The first failure finishing a closed segment, reported to appenders from then on. */
+  @Nullable private volatile IOException failure;
+
+  private long segmentNumber;
+  private Path segmentPath;
+  @Nullable private FileChannel channel;
+  private MappedByteBuffer segment;
+
+  private SegmentedLog(Builder builder) throws IOException {
+    this.basePath = builder.basePath.toAbsolutePath();
+    this.segmentSize = builder.segmentSize;
+    this.maxSegments = builder.maxSegments;
+    this.maxTotalBytes = builder.maxTotalBytes;
+    this.compressClosedSegments = builder.compressClosedSegments;
+
+    ImmutableList<Segment> existing = listSegments(basePath);
+    segmentNumber = existing.isEmpty() ? 0 : existing.get(existing.size() - 1).number;
+    openNextSegment();
+  }
+
+  /** Creates a log writing segments next to {@code basePath}, named after its file name. */
+  public static Builder builder(Path basePath) {
+    return new Builder(basePath);
+  }
+
+  /** Appends a record, rolling over to a new segment if it doesn't fit in the current one. */
+  public void append(
+      long timestampMillis, Direction direction, byte[] payload, int offset, int length)
+      throws IOException {
+    checkState(channel != null, "SegmentedLog is closed");
+    throwIfFailed();
+    checkPositionIndexes(offset, offset + length, payload.length);
+    int recordSize = HEADER_BYTES + length;
+    checkArgument(
+        recordSize <= segmentSize - SEGMENT_HEADER_BYTES,
+        "Record of %s bytes doesn't fit in a segment", length);
+
+    if (segment.remaining() < recordSize) {
+      roll();
+    }
+
+    int start = segment.position();
+    segment.position(start + LENGTH_BYTES);
+    segment.putLong(timestampMillis);
+    segment.put((byte) direction.ordinal());
+    segment.put(payload, offset, length);
+    // publish the record only once it is complete
+    segment.putInt(start, recordSize - LENGTH_BYTES);
+  }
+
+  /** Forces the current segment out to disk. */
+  public void flush() {
+    if (segment != null) {
+      segment.force();
+    }
+  }
+
+  /**
+   * Closes the current segment, compressing it and applying retention as if it had filled up, and
+   * waits for every closed segment to be finished.
+   */
+  @Override
+  public void close() throws IOException {
+    if (channel == null) {
+      return;
+    }
+    closeSegment();
+    background.shutdown();
+    try {
+      background.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for closed segments");
+    }
+    throwIfFailed();
+  }
+
+  private void roll() throws IOException {
+    closeSegment();
+    openNextSegment();
+  }
+
+  private void openNextSegment() throws IOException {
+    ++segmentNumber;
+    segmentPath = getSegmentPath(basePath, segmentNumber, SEGMENT_SUFFIX);
+    channel =
+        FileChannel.open(
+            segmentPath,
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    // the file is extended without writing anything, so unused space stays sparse on disk
+    segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+    segment.position(SEGMENT_HEADER_BYTES);
+  }
+
+  /**
+   * Seals the current segment, and leaves forcing it to disk, compressing it and retention to the
+   * background.
+   */
+  private void closeSegment() throws IOException {
+    MappedByteBuffer closed = segment;
+    int writtenBytes = closed.position();
+    closed.putInt(0, writtenBytes);
+    channel.close();
+    channel = null;
+    segment = null;
+
+    Path path = segmentPath;
+    long number = segmentNumber;
+    background.execute(
+        () -> {
+          try {
+            closed.force();
+            finishSegment(path, number, writtenBytes);
+          } catch (IOException ex) {
+            if (failure == null) {
+              failure = ex;
+            }
+          }
+        });
+  }
+
+  private void finishSegment(Path path, long number, int writtenBytes) throws IOException {
+    if (compressClosedSegments) {
+      compress(path, number, writtenBytes);
+    }
+    applyRetention(number);
+  }
+
+  private void compress(Path path, long number, int writtenBytes) throws IOException {
+    Path compressedPath = getSegmentPath(basePath, number, COMPRESSED_SUFFIX);
+    try (InputStream input = ByteStreams.limit(Files.newInputStream(path), writtenBytes);
+        OutputStream output = new GZIPOutputStream(Files.newOutputStream(compressedPath))) {
+      ByteStreams.copy(input, output);
+    }
+    Files.delete(path);
+  }
+
+  /**
+   * Deletes the oldest closed segments, up to {@code lastClosed}, until the limits are met. Later
+   * segments are still being written.
+   */
+  private void applyRetention(long lastClosed) throws IOException {
+    if (maxSegments == 0 && maxTotalBytes == 0) {
+      return;
+    }
+
+    List<Segment> segments = new ArrayList<>();
+    long totalBytes = 0;
+    for (Segment segment : listSegments(basePath)) {
+      if (segment.number <= lastClosed) {
+        segments.add(segment);
+        totalBytes += getWrittenBytes(segment);
+      }
+    }
+
+    while (!segments.isEmpty()
+        && ((maxSegments > 0 && segments.size() > maxSegments)
+            || (maxTotalBytes > 0 && totalBytes > maxTotalBytes))) {
+      Segment oldest = segments.remove(0);
+      totalBytes -= getWrittenBytes(oldest);
+      Files.delete(oldest.path);
+    }
+  }
+
+  /** Returns how many bytes of a segment's file hold records, or its size if it wasn't sealed. */
+  private static long getWrittenBytes(Segment segment) throws IOException {
+    if (!segment.compressed) {
+      int writtenBytes = readWrittenBytes(segment.path);
+      if (writtenBytes > 0) {
+        return writtenBytes;
+      }
+    }
+    return Files.size(segment.path);
+  }
+
+  /** Reads the written length from an uncompressed segment's header, 0 if it was never sealed. */
+  private static int readWrittenBytes(Path path) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+    try (FileChannel channel = FileChannel.open(path)) {
+      while (header.hasRemaining() && channel.read(header) >= 0) {}
+    }
+    return header.hasRemaining() ? 0 : header.getInt(0);
+  }
+
+  private void throwIfFailed() throws IOException {
+    IOException ex = failure;
+    if (ex != null) {
+      throw new IOException("Finishing a closed segment failed", ex);
+    }
+  }
+
+  private static Path getSegmentPath(Path basePath, long number, String suffix) {
+    return basePath.resolveSibling(
+        String.format("%s.%06d%s", basePath.getFileName(), number, suffix));
+  }
+
+  /** Returns the segments written for {@code basePath}, oldest first. */
+  static ImmutableList<Segment> listSegments(Path basePath) throws IOException {
+    Path absolutePath = basePath.toAbsolutePath();
+    Pattern segmentPattern =
+        Pattern.compile(
+            Pattern.quote(absolutePath.getFileName().toString())
+                + "\\.(\\d+)("
+                + Pattern.quote(SEGMENT_SUFFIX)
+                + "|"
+                + Pattern.quote(COMPRESSED_SUFFIX)
+                + ")");
+
+    List<Segment> segments = new ArrayList<>();
+    try (DirectoryStream<Path> directory = Files.newDirectoryStream(absolutePath.getParent())) {
+      for (Path path : directory) {
+        Matcher matcher = segmentPattern.matcher(path.getFileName().toString());
+        if (matcher.matches()) {
+          segments.add(
+              new Segment(
+                  path,
+                  Long.parseLong(matcher.group(1)),
+                  matcher.group(2).equals(COMPRESSED_SUFFIX)));
+        }
+      }
+    }
+    segments.sort(Segment.BY_NUMBER);
+    return ImmutableList.copyOf(segments);
+  }
+}
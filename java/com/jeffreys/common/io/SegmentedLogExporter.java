@@ -0,0 +1,31 @@
+package com.jeffreys.common.io;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+/**
+ * Prints a {@link SegmentedLog} in the plain text log format, so existing tools keep working.
+ *
+ * <p>Usage: {@code SegmentedLogExporter <log_file> [charset]}, where {@code log_file} is the
+ * configured log file the segments are named after, and {@code charset} defaults to ISO-8859-1.
+ */
+public final class SegmentedLogExporter {
+  private SegmentedLogExporter() {}
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: SegmentedLogExporter <log_file> [charset]");
+      System.exit(1);
+    }
+    Charset charset = args.length > 1 ? Charset.forName(args[1]) : StandardCharsets.ISO_8859_1;
+
+    Writer output = new BufferedWriter(new OutputStreamWriter(System.out, charset));
+    SegmentedLogReader.exportInboundText(Paths.get(args[0]), charset, output);
+    output.flush();
+  }
+}
@@ -0,0 +1,74 @@
+package com.jeffreys.common.io;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Appends every {@link SessionJournal} entry to a {@link SegmentedLog}, encoded in a character
+ * set, keeping the journal's timestamp and direction.
+ *
+ * <p>Thread safe, so the log can be flushed from another thread than the one recording. Closing
+ * the listener closes the log, and any entries recorded after that are dropped, since lines may
+ * still be arriving as a session shuts down.
+ */
+public final class SegmentedLogListener implements SessionJournal.Listener, Flushable, Closeable {
+  private static final int INITIAL_CAPACITY = 256;
+
+  private final SegmentedLog log;
+  private final CharsetEncoder encoder;
+  private ByteBuffer encoded = ByteBuffer.allocate(INITIAL_CAPACITY);
+  private boolean closed;
+
+  public SegmentedLogListener(SegmentedLog log, Charset charset) {
+    this.log = log;
+    this.encoder =
+        charset
+            .newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  @Override
+  public synchronized void onEntry(SessionJournal.Entry entry) throws IOException {
+    if (closed) {
+      return;
+    }
+    int maxBytes = (int) Math.ceil(entry.length() * encoder.maxBytesPerChar());
+    if (encoded.capacity() < maxBytes) {
+      encoded = ByteBuffer.allocate(maxBytes);
+    }
+    encoded.clear();
+    encoder.reset();
+    CharBuffer chars = CharBuffer.wrap(entry.getTextArray(), 0, entry.length());
+    if (encoder.encode(chars, encoded, /* endOfInput= */ true).isError()
+        || encoder.flush(encoded).isError()) {
+      throw new CharacterCodingException();
+    }
+
+    log.append(
+        entry.getTimestampMillis(), entry.getDirection(), encoded.array(), 0, encoded.position());
+  }
+
+  /** Forces the log out to disk. */
+  @Override
+  public synchronized void flush() {
+    if (!closed) {
+      log.flush();
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (!closed) {
+      closed = true;
+      log.close();
+    }
+  }
+}
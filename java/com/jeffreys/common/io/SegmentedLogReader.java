@@ -0,0 +1,88 @@
+package com.jeffreys.common.io;
+
+import com.google.common.io.ByteStreams;
+import com.jeffreys.common.io.SegmentedLog.Direction;
+import com.jeffreys.common.io.SegmentedLog.Segment;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/** Reads back the records written by {@link SegmentedLog}, in the order they were appended. */
+public final class SegmentedLogReader {
+
+  /** Receives each record read. */
+  @FunctionalInterface
+  public interface RecordVisitor {
+    /**
+     * Called for each record. {@code payload} is only valid during the call, and is positioned
+     * over the record's bytes.
+     */
+    void visit(long timestampMillis, Direction direction, ByteBuffer payload) throws IOException;
+  }
+
+  private SegmentedLogReader() {}
+
+  /** Reads every record of every segment written for {@code basePath}, oldest first. */
+  public static void read(Path basePath, RecordVisitor visitor) throws IOException {
+    for (Segment segment : SegmentedLog.listSegments(basePath)) {
+      readSegment(loadSegment(segment), visitor);
+    }
+  }
+
+  /**
+   * Writes the inbound records for {@code basePath} to {@code output} as lines, which is the text
+   * log format.
+   */
+  public static void exportInboundText(Path basePath, Charset charset, Writer output)
+      throws IOException {
+    String lineSeparator = System.lineSeparator();
+    read(
+        basePath,
+        (timestampMillis, direction, payload) -> {
+          if (direction == Direction.INBOUND) {
+            output.write(charset.decode(payload).toString());
+            output.write(lineSeparator);
+          }
+        });
+  }
+
+  private static ByteBuffer loadSegment(Segment segment) throws IOException {
+    if (segment.compressed) {
+      try (InputStream input = new GZIPInputStream(Files.newInputStream(segment.path))) {
+        return ByteBuffer.wrap(ByteStreams.toByteArray(input));
+      }
+    }
+    try (FileChannel channel = FileChannel.open(segment.path)) {
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+  }
+
+  private static void readSegment(ByteBuffer segment, RecordVisitor visitor) throws IOException {
+    int writtenBytes = segment.getInt(0);
+    if (writtenBytes > 0) {
+      segment.limit(writtenBytes);
+    }
+    segment.position(SegmentedLog.SEGMENT_HEADER_BYTES);
+    while (segment.remaining() >= SegmentedLog.HEADER_BYTES) {
+      int bodyLength = segment.getInt();
+      if (bodyLength == 0) {
+        // the rest of the segment was never written
+        return;
+      }
+      int end = segment.position() + bodyLength;
+      long timestampMillis = segment.getLong();
+      Direction direction = Direction.fromOrdinal(segment.get());
+
+      ByteBuffer payload = segment.duplicate();
+      payload.limit(end);
+      visitor.visit(timestampMillis, direction, payload);
+      segment.position(end);
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package com.jeffreys.common.io;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkElementIndex;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+import com.jeffreys.common.io.SegmentedLog.Direction;
+import java.io.IOException;
+import java.time.Clock;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * A timestamped record of everything sent and received in a session, in the order it happened.
+ *
+ * <p>Entries are kept in a ring of preallocated {@link Entry} objects, so recording an event
+ * copies its text but allocates nothing once the ring has warmed up. {@link Listener}s see each
+ * entry as it is recorded, and the most recent entries can be replayed with {@link
+ * #forEachRecent}.
+ *
+ * <p>Listeners are called while the journal is locked, so they see entries in the order they were
+ * recorded. Recording waits for every listener, from whichever thread sent or received the line.
+ */
+public final class SessionJournal {
+  private static final int INITIAL_TEXT_CAPACITY = 128;
+
+  /**
+   * Is told about every entry as it is recorded. Listeners run on the threads reading and writing
+   * the session while the journal is locked, so they must not block, such as on disk I/O, and hand
+   * any slow work to another thread.
+   */
+  @FunctionalInterface
+  public interface Listener {
+    /** Called with each new entry, which is reused later and must be copied to be kept. */
+    void onEntry(Entry entry) throws IOException;
+  }
+
+  /** One line sent or received. The text excludes the line terminator. */
+  public static final class Entry implements CharSequence {
+    private long timestampMillis;
+    private long nanoTime;
+    private Direction direction = Direction.INBOUND;
+    private char[] text = new char[INITIAL_TEXT_CAPACITY];
+    private int length;
+
+    private Entry() {}
+
+    /** The wall clock time the entry was recorded, in milliseconds since the epoch. */
+    public long getTimestampMillis() {
+      return timestampMillis;
+    }
+
+    /** {@link System#nanoTime} when the entry was recorded, for measuring intervals. */
+    public long getNanoTime() {
+      return nanoTime;
+    }
+
+    public Direction getDirection() {
+      return direction;
+    }
+
+    /** Returns the backing text array, valid up to {@link #length()}. */
+    public char[] getTextArray() {
+      return text;
+    }
+
+    @Override
+    public int length() {
+      return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+      checkElementIndex(index, length);
+      return text[index];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      checkPositionIndexes(start, end, length);
+      return new String(text, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+      return new String(text, 0, length);
+    }
+
+    /** Resets the entry to hold {@code length} characters, which the caller then copies in. */
+    private void reset(long timestampMillis, long nanoTime, Direction direction, int length) {
+      this.timestampMillis = timestampMillis;
+      this.nanoTime = nanoTime;
+      this.direction = direction;
+      if (text.length < length) {
+        text = new char[Math.max(length, 2 * text.length)];
+      }
+      this.length = length;
+    }
+  }
+
+  private final Entry[] entries;
+  private final Clock clock;
+  private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+  /** The total number of entries recorded, the next one going at {@code count % capacity}. */
+  private long count;
+
+  /** Creates a journal remembering the last {@code capacity} entries. */
+  public SessionJournal(int capacity, Clock clock) {
+    checkArgument(capacity > 0, "capacity must be positive");
+    this.entries = new Entry[capacity];
+    for (int i = 0; i < capacity; ++i) {
+      entries[i] = new Entry();
+    }
+    this.clock = clock;
+  }
+
+  public void addListener(Listener listener) {
+    listeners.add(listener);
+  }
+
+  /** Records a line of {@code text} that went in {@code direction}, and tells the listeners. */
+  public synchronized void record(Direction direction, char[] text, int offset, int length)
+      throws IOException {
+    checkPositionIndexes(offset, offset + length, text.length);
+    Entry entry = nextEntry(direction, length);
+    System.arraycopy(text, offset, entry.text, 0, length);
+    notifyListeners(entry);
+  }
+
+  /** Records a line of {@code text}, like {@link #record(Direction, char[], int, int)}. */
+  public synchronized void record(Direction direction, String text) throws IOException {
+    Entry entry = nextEntry(direction, text.length());
+    text.getChars(0, text.length(), entry.text, 0);
+    notifyListeners(entry);
+  }
+
+  private Entry nextEntry(Direction direction, int length) {
+    Entry entry = entries[(int) (count++ % entries.length)];
+    entry.reset(clock.millis(), System.nanoTime(), direction, length);
+    return entry;
+  }
+
+  private void notifyListeners(Entry entry) throws IOException {
+    for (Listener listener : listeners) {
+      listener.onEntry(entry);
+    }
+  }
+
+  /** Returns the total number of entries recorded. */
+  public synchronized long getCount() {
+    return count;
+  }
+
+  /** Calls {@code consumer} with each remembered entry, oldest first. */
+  public synchronized void forEachRecent(Consumer<? super Entry> consumer) {
+    long first = Math.max(0, count - entries.length);
+    for (long i = first; i < count; ++i) {
+      consumer.accept(entries[(int) (i % entries.length)]);
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package com.jeffreys.common.queue;
 
 import java.time.Duration;
+import java.util.Collection;
 import java.util.concurrent.ExecutionException;
 import javax.annotation.Nullable;
 
@@ -8,4 +9,29 @@ import javax.annotation.Nullable;
 public interface NonBlockingSupplier<T> {
   @Nullable
   T get(Duration timeout) throws InterruptedException, ExecutionException;
+
+  /**
+   * Waits up to {@code timeout} for an element, then moves it and up to {@code maxElements - 1}
+   * more elements that are already available into {@code destination}, without waiting for them.
+   *
+   * <p>An exception is only thrown if it is the first element. When it follows elements that were
+   * already moved, those are returned and the exception is thrown by the next call instead.
+   *
+   * <p>The default implementation moves a single element, implementations which can see what is
+   * already queued should override it.
+   *
+   * @return the number of elements moved, which is 0 if the timeout elapsed
+   */
+  default int drainTo(Collection<? super T> destination, int maxElements, Duration timeout)
+      throws InterruptedException, ExecutionException {
+    if (maxElements <= 0) {
+      throw new IllegalArgumentException("maxElements must be positive");
+    }
+    T value = get(timeout);
+    if (value == null) {
+      return 0;
+    }
+    destination.add(value);
+    return 1;
+  }
 }
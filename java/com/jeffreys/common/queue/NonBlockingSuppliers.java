@@ -1,8 +1,13 @@
 package com.jeffreys.common.queue;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
@@ -44,6 +49,8 @@ public class NonBlockingSuppliers {
 
   private static final class NonBlockingSupplierImpl<T> implements NonBlockingSupplier<T> {
     private final BlockingQueue<Getter<T>> queue;
+    /** Values drained from {@link #queue} that are behind an exception, in order. */
+    private final Queue<Getter<T>> deferred = new ConcurrentLinkedQueue<>();
 
     private NonBlockingSupplierImpl(int capacity, BlockingQueue<Getter<T>> queue) {
       this.queue = queue;
@@ -52,12 +59,53 @@ public class NonBlockingSuppliers {
     @Override
     @Nullable
     public T get(Duration timeout) throws InterruptedException, ExecutionException {
-      Getter<T> value = queue.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+      Getter<T> value = poll(timeout);
       if (value == null) {
         return null;
       }
       return value.getValue();
     }
+
+    @Override
+    public int drainTo(Collection<? super T> destination, int maxElements, Duration timeout)
+        throws InterruptedException, ExecutionException {
+      if (maxElements <= 0) {
+        throw new IllegalArgumentException("maxElements must be positive");
+      }
+      Getter<T> first = poll(timeout);
+      if (first == null) {
+        return 0;
+      }
+      destination.add(first.getValue());
+      // deferred values are ahead of everything in the queue, so they are returned one at a time
+      if (maxElements == 1 || !deferred.isEmpty()) {
+        return 1;
+      }
+
+      List<Getter<T>> batch = new ArrayList<>();
+      queue.drainTo(batch, maxElements - 1);
+      int count = 1;
+      for (int i = 0; i < batch.size(); ++i) {
+        Getter<T> value = batch.get(i);
+        if (value instanceof ThrowingGetter) {
+          // the exception, and everything after it, is returned by the next calls
+          deferred.addAll(batch.subList(i, batch.size()));
+          break;
+        }
+        destination.add(value.getValue());
+        ++count;
+      }
+      return count;
+    }
+
+    @Nullable
+    private Getter<T> poll(Duration timeout) throws InterruptedException {
+      Getter<T> value = deferred.poll();
+      if (value != null) {
+        return value;
+      }
+      return queue.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
   }
 
   private static final class QueuePopulator<T> implements Runnable {
@@ -96,4 +144,19 @@ public class NonBlockingSuppliers {
     executor.execute(new QueuePopulator<>(queue, blockingSupplier));
     return new NonBlockingSupplierImpl<>(capacity, queue);
   }
+
+  /**
+   * Converts a blocking {@link Supplier} into a non-blocking one that is read by a single thread.
+   *
+   * <p>Unlike {@link #createNonBlockingSupplier}, values are handed over through a lock-free ring
+   * buffer, and the consumer waits according to {@code waitStrategy}. Only one thread may call
+   * {@link NonBlockingSupplier#get}.
+   */
+  public static <T> NonBlockingSupplier<T> createSingleConsumerNonBlockingSupplier(
+      int capacity, Executor executor, Supplier<T> blockingSupplier, WaitStrategy waitStrategy) {
+    RingBufferNonBlockingSupplier<T> supplier =
+        new RingBufferNonBlockingSupplier<>(capacity, waitStrategy);
+    executor.execute(() -> supplier.populate(blockingSupplier));
+    return supplier;
+  }
 }
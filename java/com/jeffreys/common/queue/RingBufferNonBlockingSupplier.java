@@ -0,0 +1,255 @@
+package com.jeffreys.common.queue;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link NonBlockingSupplier} backed by a lock-free ring buffer, for exactly one producer thread
+ * and one consumer thread.
+ *
+ * <p>Values are stored in the ring as is, so passing a value allocates nothing. Exceptions thrown
+ * by the producer instead occupy their position in the ring with a marker, and travel in a
+ * separate error slot.
+ */
+final class RingBufferNonBlockingSupplier<T> implements NonBlockingSupplier<T> {
+  /** Marks the position of an exception in the ring, the exception itself is in the error slot. */
+  private static final Object ERROR_MARKER = new Object();
+
+  /**
+   * The longest a producer parks for. There is no deadline when waiting for room, but waking up
+   * now and then bounds the damage of a missed wakeup.
+   */
+  private static final long PRODUCER_MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  // The producer and consumer sequences are padded onto their own cache lines, otherwise every
+  // write by one side would invalidate the other side's cached copy of its own sequence.
+
+  abstract static class LeftPadding {
+    long p00, p01, p02, p03, p04, p05, p06, p07;
+  }
+
+  abstract static class ProducerSequence extends LeftPadding {
+    /** The next position the producer writes to. */
+    volatile long tail;
+  }
+
+  abstract static class MiddlePadding extends ProducerSequence {
+    long p10, p11, p12, p13, p14, p15, p16, p17;
+  }
+
+  abstract static class ConsumerSequence extends MiddlePadding {
+    /** The next position the consumer reads from. */
+    volatile long head;
+  }
+
+  static final class Sequences extends ConsumerSequence {
+    long p20, p21, p22, p23, p24, p25, p26, p27;
+  }
+
+  private final Object[] slots;
+  private final int mask;
+  private final Sequences sequences = new Sequences();
+  private final WaitStrategy waitStrategy;
+
+  /** The producer's exception at the oldest {@link #ERROR_MARKER} in the ring. */
+  @Nullable private volatile Throwable error;
+
+  @Nullable private volatile Thread parkedConsumer;
+  @Nullable private volatile Thread parkedProducer;
+
+  RingBufferNonBlockingSupplier(int capacity, WaitStrategy waitStrategy) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    // round up to a power of two, so positions wrap with a mask
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    this.slots = new Object[size];
+    this.mask = size - 1;
+    this.waitStrategy = waitStrategy;
+  }
+
+  /** Runs the producer, putting every value or exception from {@code blockingSupplier}. */
+  void populate(Supplier<T> blockingSupplier) {
+    try {
+      while (true) {
+        T value;
+        try {
+          value = blockingSupplier.get();
+        } catch (Throwable t) {
+          putError(t);
+          continue;
+        }
+        put(value);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void putError(Throwable t) throws InterruptedException {
+    // there is one error slot, so wait for the consumer to take any previous exception
+    long tail = sequences.tail;
+    if (isConsumerBehind(tail, /* needsErrorSlot= */ true)) {
+      awaitConsumer(tail, /* needsErrorSlot= */ true);
+    }
+    error = t;
+    put(ERROR_MARKER);
+  }
+
+  private void put(@Nullable Object value) throws InterruptedException {
+    long tail = sequences.tail;
+    if (isConsumerBehind(tail, /* needsErrorSlot= */ false)) {
+      awaitConsumer(tail, /* needsErrorSlot= */ false);
+    }
+
+    slots[(int) tail & mask] = value;
+    // the volatile write orders the slot before the tail, and the tail before reading
+    // parkedConsumer, so a consumer that is about to park can't miss it
+    sequences.tail = tail + 1;
+    Thread consumer = parkedConsumer;
+    if (consumer != null) {
+      LockSupport.unpark(consumer);
+    }
+  }
+
+  /** Returns whether the ring is full at {@code tail}, or the error slot is taken if needed. */
+  private boolean isConsumerBehind(long tail, boolean needsErrorSlot) {
+    return tail - sequences.head >= slots.length || (needsErrorSlot && error != null);
+  }
+
+  /** Waits for the consumer to make room at {@code tail}, and free the error slot if needed. */
+  private void awaitConsumer(long tail, boolean needsErrorSlot) throws InterruptedException {
+    int iteration = 0;
+    try {
+      while (isConsumerBehind(tail, needsErrorSlot)) {
+        if (waitStrategy.parks(iteration)) {
+          parkedProducer = Thread.currentThread();
+          // re-check after publishing ourselves, the consumer may have just missed it
+          if (!isConsumerBehind(tail, needsErrorSlot)) {
+            return;
+          }
+        }
+        iteration = idle(iteration, PRODUCER_MAX_PARK_NANOS);
+      }
+    } finally {
+      parkedProducer = null;
+    }
+  }
+
+  @Override
+  @Nullable
+  @SuppressWarnings("unchecked")
+  public T get(Duration timeout) throws InterruptedException, ExecutionException {
+    long head = sequences.head;
+    if (head >= sequences.tail) {
+      if (!awaitProducer(head, System.nanoTime() + timeout.toNanos())) {
+        return null;
+      }
+    }
+
+    int index = (int) head & mask;
+    Object value = slots[index];
+    slots[index] = null;
+    if (value == ERROR_MARKER) {
+      throw takeError(head);
+    }
+
+    setHead(head + 1);
+    return (T) value;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public int drainTo(Collection<? super T> destination, int maxElements, Duration timeout)
+      throws InterruptedException, ExecutionException {
+    if (maxElements <= 0) {
+      throw new IllegalArgumentException("maxElements must be positive");
+    }
+    long head = sequences.head;
+    if (head >= sequences.tail) {
+      if (!awaitProducer(head, System.nanoTime() + timeout.toNanos())) {
+        return 0;
+      }
+    }
+
+    int firstIndex = (int) head & mask;
+    if (slots[firstIndex] == ERROR_MARKER) {
+      slots[firstIndex] = null;
+      throw takeError(head);
+    }
+
+    // everything before the tail is published, so it is read without touching the tail again
+    long end = Math.min(sequences.tail, head + maxElements);
+    long position = head;
+    try {
+      for (; position < end; ++position) {
+        int index = (int) position & mask;
+        Object value = slots[index];
+        if (value == ERROR_MARKER) {
+          // leave the exception for the next call, after the values before it are handled
+          break;
+        }
+        destination.add((T) value);
+        slots[index] = null;
+      }
+    } finally {
+      setHead(position);
+    }
+    return (int) (position - head);
+  }
+
+  /** Takes the exception for the error marker at {@code head}, which the caller has cleared. */
+  private ExecutionException takeError(long head) {
+    Throwable t = error;
+    error = null;
+    setHead(head + 1);
+    return new ExecutionException(t);
+  }
+
+  /** Waits for the producer to publish position {@code head}, returning false on timeout. */
+  private boolean awaitProducer(long head, long deadlineNanos) throws InterruptedException {
+    int iteration = 0;
+    try {
+      while (head >= sequences.tail) {
+        long remainingNanos = deadlineNanos - System.nanoTime();
+        if (remainingNanos <= 0) {
+          return false;
+        }
+        if (waitStrategy.parks(iteration)) {
+          parkedConsumer = Thread.currentThread();
+          // re-check after publishing ourselves, the producer may have just missed it
+          if (head < sequences.tail) {
+            return true;
+          }
+        }
+        iteration = idle(iteration, remainingNanos);
+      }
+      return true;
+    } finally {
+      parkedConsumer = null;
+    }
+  }
+
+  private void setHead(long head) {
+    sequences.head = head;
+    Thread producer = parkedProducer;
+    if (producer != null) {
+      LockSupport.unpark(producer);
+    }
+  }
+
+  private int idle(int iteration, long maxParkNanos) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    return waitStrategy.idle(iteration, maxParkNanos);
+  }
+}
@@ -0,0 +1,62 @@
+package com.jeffreys.common.queue;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How a thread waits for a lock-free queue to change: it first busy spins, then yields its time
+ * slice, and finally parks until it is woken up.
+ *
+ * <p>Spinning gives the lowest latency when the other side is about to act, at the cost of a
+ * core. Parking frees the core, but costs a wakeup.
+ */
+public final class WaitStrategy {
+  private static final WaitStrategy DEFAULT =
+      new WaitStrategy(/* spinIterations= */ 100, /* yieldIterations= */ 10);
+
+  private final int spinIterations;
+  private final int yieldIterations;
+
+  private WaitStrategy(int spinIterations, int yieldIterations) {
+    if (spinIterations < 0 || yieldIterations < 0) {
+      throw new IllegalArgumentException("Iterations cannot be negative");
+    }
+    this.spinIterations = spinIterations;
+    this.yieldIterations = yieldIterations;
+  }
+
+  /** Spins {@code spinIterations} times, then yields {@code yieldIterations} times, then parks. */
+  public static WaitStrategy create(int spinIterations, int yieldIterations) {
+    return new WaitStrategy(spinIterations, yieldIterations);
+  }
+
+  /** Parks right away, which is the best choice when there are fewer cores than threads. */
+  public static WaitStrategy park() {
+    return new WaitStrategy(/* spinIterations= */ 0, /* yieldIterations= */ 0);
+  }
+
+  /** A short spin and a few yields before parking. */
+  public static WaitStrategy getDefault() {
+    return DEFAULT;
+  }
+
+  /** Returns whether the {@code iteration}th call to {@link #idle} parks the thread. */
+  boolean parks(int iteration) {
+    return iteration >= spinIterations + yieldIterations;
+  }
+
+  /**
+   * Waits once, parking for at most {@code maxParkNanos}.
+   *
+   * @return the next {@code iteration}
+   */
+  int idle(int iteration, long maxParkNanos) {
+    if (iteration < spinIterations) {
+      // busy spin, the other side is likely about to act
+    } else if (iteration < spinIterations + yieldIterations) {
+      Thread.yield();
+    } else {
+      LockSupport.parkNanos(this, maxParkNanos);
+    }
+    return iteration == Integer.MAX_VALUE ? iteration : iteration + 1;
+  }
+}
@@ -0,0 +1,164 @@
+package com.jeffreys.common.text;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.TreeSet;
+
+/**
+ * Finds every occurrence of a fixed set of patterns in a single pass over the text.
+ *
+ * <p>The patterns are compiled once into a deterministic automaton, so searching costs one table
+ * lookup per character no matter how many patterns there are, and does not allocate.
+ */
+public final class AhoCorasick {
+
+  /** Receives each match found by {@link AhoCorasick#search}. */
+  @FunctionalInterface
+  public interface MatchListener {
+    /**
+     * Called for a match of the pattern at {@code patternIndex} starting at {@code start}.
+     *
+     * <p>Matches are reported in order of where they end, so the first match reported for a
+     * given pattern is also its first occurrence.
+     */
+    void onMatch(int patternIndex, int start);
+  }
+
+  private static final int ROOT = 0;
+  private static final int NO_PATTERN = -1;
+  /** The symbol of every character that appears in none of the patterns. */
+  private static final int OTHER_SYMBOL = 0;
+
+  private final ImmutableList<String> patterns;
+  /** The sorted, distinct characters of all patterns, character {@code i} being symbol i + 1. */
+  private final char[] alphabet;
+  private final int[] asciiSymbols = new int[128];
+  private final int symbolCount;
+  /** The next state, indexed by {@code state * symbolCount + symbol}. */
+  private final int[] transitions;
+  /** The pattern ending at each state, or {@link #NO_PATTERN}. */
+  private final int[] statePatterns;
+  /** The nearest proper suffix state that ends a pattern, or {@link #ROOT} if none. */
+  private final int[] outputLinks;
+
+  private AhoCorasick(ImmutableList<String> patterns) {
+    this.patterns = patterns;
+
+    TreeSet<Character> characters = new TreeSet<>();
+    int maxStates = 1;
+    for (String pattern : patterns) {
+      checkArgument(!pattern.isEmpty(), "Patterns cannot be empty");
+      maxStates += pattern.length();
+      for (int i = 0; i < pattern.length(); ++i) {
+        characters.add(pattern.charAt(i));
+      }
+    }
+
+    alphabet = new char[characters.size()];
+    int symbol = 0;
+    for (char c : characters) {
+      alphabet[symbol++] = c;
+      if (c < asciiSymbols.length) {
+        asciiSymbols[c] = symbol;
+      }
+    }
+    symbolCount = alphabet.length + 1;
+
+    int[] trie = new int[maxStates * symbolCount];
+    Arrays.fill(trie, ROOT);
+    int[] patternAtState = new int[maxStates];
+    Arrays.fill(patternAtState, NO_PATTERN);
+    int stateCount = 1;
+
+    for (int patternIndex = 0; patternIndex < patterns.size(); ++patternIndex) {
+      String pattern = patterns.get(patternIndex);
+      int state = ROOT;
+      for (int i = 0; i < pattern.length(); ++i) {
+        int index = state * symbolCount + getSymbol(pattern.charAt(i));
+        if (trie[index] == ROOT) {
+          trie[index] = stateCount++;
+        }
+        state = trie[index];
+      }
+      checkArgument(patternAtState[state] == NO_PATTERN, "Duplicate pattern %s", pattern);
+      patternAtState[state] = patternIndex;
+    }
+
+    transitions = Arrays.copyOf(trie, stateCount * symbolCount);
+    statePatterns = Arrays.copyOf(patternAtState, stateCount);
+    outputLinks = new int[stateCount];
+    buildFailureTransitions(stateCount);
+  }
+
+  /**
+   * Replaces every missing trie edge with the edge its failure state takes, turning the trie into
+   * a DFA, and links each state to the nearest suffix that ends a pattern.
+   */
+  private void buildFailureTransitions(int stateCount) {
+    int[] failures = new int[stateCount];
+    Queue<Integer> queue = new ArrayDeque<>();
+
+    for (int symbol = 0; symbol < symbolCount; ++symbol) {
+      int child = transitions[symbol];
+      if (child != ROOT) {
+        queue.add(child);
+      }
+    }
+
+    while (!queue.isEmpty()) {
+      int state = queue.remove();
+      for (int symbol = 0; symbol < symbolCount; ++symbol) {
+        int index = state * symbolCount + symbol;
+        int fallback = transitions[failures[state] * symbolCount + symbol];
+        int child = transitions[index];
+        if (child == ROOT) {
+          transitions[index] = fallback;
+        } else {
+          failures[child] = fallback;
+          outputLinks[child] =
+              statePatterns[fallback] != NO_PATTERN ? fallback : outputLinks[fallback];
+          queue.add(child);
+        }
+      }
+    }
+  }
+
+  public static AhoCorasick create(Iterable<String> patterns) {
+    return new AhoCorasick(ImmutableList.copyOf(patterns));
+  }
+
+  public static AhoCorasick create(String... patterns) {
+    return new AhoCorasick(ImmutableList.copyOf(patterns));
+  }
+
+  public ImmutableList<String> getPatterns() {
+    return patterns;
+  }
+
+  /** Reports every, possibly overlapping, occurrence of every pattern in {@code text}. */
+  public void search(CharSequence text, MatchListener listener) {
+    int state = ROOT;
+    for (int i = 0; i < text.length(); ++i) {
+      state = transitions[state * symbolCount + getSymbol(text.charAt(i))];
+
+      int output = statePatterns[state] != NO_PATTERN ? state : outputLinks[state];
+      while (output != ROOT) {
+        int patternIndex = statePatterns[output];
+        listener.onMatch(patternIndex, i - patterns.get(patternIndex).length() + 1);
+        output = outputLinks[output];
+      }
+    }
+  }
+
+  private int getSymbol(char c) {
+    if (c < asciiSymbols.length) {
+      return asciiSymbols[c];
+    }
+    int index = Arrays.binarySearch(alphabet, c);
+    return index >= 0 ? index + 1 : OTHER_SYMBOL;
+  }
+}
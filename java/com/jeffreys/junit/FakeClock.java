@@ -0,0 +1,44 @@
+package com.jeffreys.junit;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+/** A {@link Clock} that starts at the epoch in UTC, and only moves when it is advanced. */
+public final class FakeClock extends Clock {
+  /** The current time, shared with the clocks returned by {@link #withZone}. */
+  private final AtomicReference<Instant> now;
+  private final ZoneId zone;
+
+  public FakeClock() {
+    this(new AtomicReference<>(Instant.EPOCH), ZoneOffset.UTC);
+  }
+
+  private FakeClock(AtomicReference<Instant> now, ZoneId zone) {
+    this.now = now;
+    this.zone = zone;
+  }
+
+  /** Moves the time forward by {@code duration}, for this clock and all of its zones. */
+  public void advance(Duration duration) {
+    now.updateAndGet(instant -> instant.plus(duration));
+  }
+
+  @Override
+  public Instant instant() {
+    return now.get();
+  }
+
+  @Override
+  public ZoneId getZone() {
+    return zone;
+  }
+
+  @Override
+  public Clock withZone(ZoneId zone) {
+    return zone.equals(this.zone) ? this : new FakeClock(now, zone);
+  }
+}
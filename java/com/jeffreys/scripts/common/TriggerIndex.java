@@ -0,0 +1,200 @@
+package com.jeffreys.scripts.common;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.jeffreys.common.text.AhoCorasick;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Narrows down which triggers can possibly match a line, so only those run their full regex.
+ *
+ * <p>Each trigger regex is reduced to a literal substring that every match must contain. All the
+ * literals are scanned for at once, and only triggers whose literal appears in the line (or that
+ * have no literal at all) are candidates.
+ *
+ * <p>Not thread safe, the candidates are collected into the same set for every line.
+ */
+final class TriggerIndex {
+  private static final String SIMPLE_ESCAPES = "dDwWsSbBAGZztnrfaehHvVRX";
+
+  private final AhoCorasick literalMatcher;
+  /** The indices of the triggers requiring each of {@link #literalMatcher}'s patterns. */
+  private final int[][] literalTriggers;
+  /** The triggers without any required literal, which are always candidates. */
+  private final BitSet unfilteredTriggers = new BitSet();
+  /** The candidates of the last line searched, reused so searching allocates nothing. */
+  private final BitSet candidates = new BitSet();
+  private final AhoCorasick.MatchListener addCandidates = this::addCandidates;
+
+  TriggerIndex(List<Trigger> triggers) {
+    Map<String, List<Integer>> triggersByLiteral = new LinkedHashMap<>();
+
+    for (int i = 0; i < triggers.size(); ++i) {
+      Optional<String> literal = extractRequiredLiteral(triggers.get(i).getTriggerRegex());
+      if (literal.isPresent()) {
+        triggersByLiteral.computeIfAbsent(literal.get(), key -> new ArrayList<>()).add(i);
+      } else {
+        unfilteredTriggers.set(i);
+      }
+    }
+
+    literalMatcher = AhoCorasick.create(triggersByLiteral.keySet());
+    literalTriggers =
+        triggersByLiteral.values().stream().map(Ints::toArray).toArray(int[][]::new);
+  }
+
+  /**
+   * Returns the indices of the triggers that may match {@code text}. The set is only valid until
+   * the next call.
+   */
+  BitSet findCandidates(CharSequence text) {
+    candidates.clear();
+    candidates.or(unfilteredTriggers);
+    literalMatcher.search(text, addCandidates);
+    return candidates;
+  }
+
+  private void addCandidates(int literalIndex, int start) {
+    for (int trigger : literalTriggers[literalIndex]) {
+      candidates.set(trigger);
+    }
+  }
+
+  /**
+   * Returns the longest literal that any string matching {@code regex} must contain.
+   *
+   * <p>This is deliberately conservative, and gives up on anything it does not fully understand:
+   * top level alternations, inline flags, quoting and escapes with arguments. Literals are only
+   * taken from outside of groups and character classes.
+   */
+  @VisibleForTesting
+  static Optional<String> extractRequiredLiteral(String regex) {
+    ImmutableList.Builder<String> literals = ImmutableList.builder();
+    StringBuilder run = new StringBuilder();
+    int depth = 0;
+
+    for (int i = 0; i < regex.length(); ++i) {
+      char c = regex.charAt(i);
+      switch (c) {
+        case '|':
+          if (depth == 0) {
+            return Optional.empty();
+          }
+          // an alternation inside a group only affects the group, which is skipped anyway
+          break;
+        case '\\':
+          char escaped = regex.charAt(++i);
+          if (!Character.isLetterOrDigit(escaped)) {
+            appendLiteral(run, escaped, depth);
+          } else if (SIMPLE_ESCAPES.indexOf(escaped) >= 0) {
+            endRun(run, literals);
+          } else {
+            // quoting, properties, hex and unicode escapes, back references and the like
+            return Optional.empty();
+          }
+          break;
+        case '[':
+          endRun(run, literals);
+          i = skipCharacterClass(regex, i);
+          if (i < 0) {
+            return Optional.empty();
+          }
+          break;
+        case '(':
+          if (i + 1 < regex.length()
+              && regex.charAt(i + 1) == '?'
+              && !isSpecialGroup(regex.charAt(i + 2))) {
+            // inline flags, such as (?i), change how literals match
+            return Optional.empty();
+          }
+          endRun(run, literals);
+          ++depth;
+          break;
+        case ')':
+          endRun(run, literals);
+          --depth;
+          break;
+        case '*':
+        case '?':
+          // the previous character is optional
+          dropLastCharacter(run);
+          endRun(run, literals);
+          break;
+        case '{':
+          dropLastCharacter(run);
+          endRun(run, literals);
+          i = regex.indexOf('}', i);
+          break;
+        case '+':
+        case '.':
+        case '^':
+        case '$':
+          endRun(run, literals);
+          break;
+        default:
+          appendLiteral(run, c, depth);
+          break;
+      }
+    }
+    endRun(run, literals);
+
+    return literals.build().stream()
+        .reduce((longest, literal) -> literal.length() > longest.length() ? literal : longest);
+  }
+
+  private static void appendLiteral(StringBuilder run, char c, int depth) {
+    if (depth == 0) {
+      run.append(c);
+    }
+  }
+
+  private static void dropLastCharacter(StringBuilder run) {
+    if (run.length() > 0) {
+      run.setLength(run.length() - 1);
+    }
+  }
+
+  private static void endRun(StringBuilder run, ImmutableList.Builder<String> literals) {
+    if (run.length() > 0) {
+      literals.add(run.toString());
+      run.setLength(0);
+    }
+  }
+
+  /** Returns whether {@code (?c} starts a non-capturing, named or lookaround group. */
+  private static boolean isSpecialGroup(char c) {
+    return c == ':' || c == '=' || c == '!' || c == '<' || c == '>';
+  }
+
+  /**
+   * Returns the index of the {@code ]} closing the character class opened at {@code start}, or -1
+   * if the class is too complicated to skip, such as nested classes.
+   */
+  private static int skipCharacterClass(String regex, int start) {
+    int i = start + 1;
+    if (i < regex.length() && regex.charAt(i) == '^') {
+      ++i;
+    }
+    // a leading ] is a literal
+    if (i < regex.length() && regex.charAt(i) == ']') {
+      ++i;
+    }
+    for (; i < regex.length(); ++i) {
+      char c = regex.charAt(i);
+      if (c == '\\') {
+        ++i;
+      } else if (c == '[') {
+        return -1;
+      } else if (c == ']') {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -1,20 +1,32 @@
 package com.jeffreys.scripts.common;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.toImmutableList;
 
 import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Streams;
 import com.jeffreys.common.ansi.AnsiColorParser.AnsiColor;
 import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiText;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.function.BiConsumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
 
 public class Triggers {
 
   @AutoValue
   abstract static class CompiledTrigger {
+    /** The position of the trigger in the configuration, which is the order triggers fire in. */
+    abstract int getIndex();
+
     abstract int getId();
 
     abstract Color getExpectedColor();
@@ -23,8 +35,9 @@ public class Triggers {
 
     abstract String getCommand();
 
-    static CompiledTrigger create(Trigger trigger) {
+    static CompiledTrigger create(int index, Trigger trigger) {
       return new AutoValue_Triggers_CompiledTrigger(
+          index,
           trigger.getId(),
           trigger.getExpectedColor(),
           Pattern.compile(trigger.getTriggerRegex()),
@@ -32,15 +45,134 @@ public class Triggers {
     }
   }
 
-  private final ImmutableList<CompiledTrigger> compiledTriggers;
+  /** What lines are cached by, which is everything that decides whether triggers match. */
+  @AutoValue
+  abstract static class CacheKey {
+    abstract String getText();
+
+    abstract AnsiColor getForegroundColor();
 
-  private Triggers(Iterable<Trigger> triggers) {
-    compiledTriggers =
-        Streams.stream(triggers).map(CompiledTrigger::create).collect(toImmutableList());
+    static CacheKey create(String text, AnsiColor foregroundColor) {
+      return new AutoValue_Triggers_CacheKey(text, foregroundColor);
+    }
+  }
+
+  /** A trigger that matched a line, and its command with the groups substituted. */
+  @AutoValue
+  abstract static class TriggerMatch {
+    abstract int getId();
+
+    abstract String getCommand();
+
+    static TriggerMatch create(int id, String command) {
+      return new AutoValue_Triggers_TriggerMatch(id, command);
+    }
+  }
+
+  private static final CacheStats NO_CACHE_STATS = new CacheStats(0, 0, 0, 0, 0, 0);
+
+  /** The proto color of each {@link AnsiColor}, indexed by ordinal. */
+  private static final Color[] PROTO_COLORS =
+      Arrays.stream(AnsiColor.values()).map(Triggers::toProtoColor).toArray(Color[]::new);
+
+  /** Below this many triggers, a fork join task isn't worth splitting any further. */
+  private static final int PARALLEL_CHUNK_SIZE = 16;
+
+  /** The triggers expecting each {@link AnsiColor}, indexed by ordinal. */
+  private final CompiledTrigger[][] colorTriggers = new CompiledTrigger[PROTO_COLORS.length][];
+  /** The triggers expecting {@link Color#ANY}. */
+  private final CompiledTrigger[] anyTriggers;
+  private final TriggerIndex triggerIndex;
+  /**
+   * The candidates of the line being processed, sized for the largest color bucket and reused so
+   * lines don't allocate it. This makes processing lines not thread safe.
+   */
+  private final CompiledTrigger[] candidates;
+  @Nullable private final ForkJoinPool pool;
+  private final int parallelThreshold;
+  /** The matches of recently seen lines, since triggers never change this never invalidates. */
+  @Nullable private final Cache<CacheKey, ImmutableList<TriggerMatch>> cache;
+
+  private Triggers(Builder builder) {
+    ImmutableList<Trigger> triggerList = builder.triggers;
+    ImmutableList<CompiledTrigger> compiledTriggers =
+        IntStream.range(0, triggerList.size())
+            .mapToObj(i -> CompiledTrigger.create(i, triggerList.get(i)))
+            .collect(toImmutableList());
+
+    for (int i = 0; i < PROTO_COLORS.length; ++i) {
+      colorTriggers[i] = filterByColor(compiledTriggers, PROTO_COLORS[i]);
+    }
+    anyTriggers = filterByColor(compiledTriggers, Color.ANY);
+    int largestBucket =
+        Arrays.stream(colorTriggers).mapToInt(bucket -> bucket.length).max().orElse(0);
+    candidates = new CompiledTrigger[largestBucket + anyTriggers.length];
+    triggerIndex = new TriggerIndex(triggerList);
+    // small configurations never go parallel, so don't hold on to the pool
+    pool = compiledTriggers.size() >= builder.parallelThreshold ? builder.pool : null;
+    parallelThreshold = builder.parallelThreshold;
+    cache =
+        builder.cacheSize > 0
+            ? CacheBuilder.newBuilder().maximumSize(builder.cacheSize).recordStats().build()
+            : null;
+  }
+
+  private static CompiledTrigger[] filterByColor(
+      ImmutableList<CompiledTrigger> compiledTriggers, Color color) {
+    return compiledTriggers.stream()
+        .filter(trigger -> trigger.getExpectedColor() == color)
+        .toArray(CompiledTrigger[]::new);
   }
 
   public static Triggers of(Iterable<Trigger> triggers) {
-    return new Triggers(triggers);
+    return builder(triggers).build();
+  }
+
+  public static Builder builder(Iterable<Trigger> triggers) {
+    return new Builder(triggers);
+  }
+
+  /** Creates {@link Triggers} with optional features, which are all off by default. */
+  public static final class Builder {
+    private final ImmutableList<Trigger> triggers;
+    @Nullable private ForkJoinPool pool = null;
+    private int parallelThreshold = Integer.MAX_VALUE;
+    private long cacheSize = 0;
+
+    private Builder(Iterable<Trigger> triggers) {
+      this.triggers = ImmutableList.copyOf(triggers);
+    }
+
+    /**
+     * Evaluates the triggers of a line with at least {@code parallelThreshold} candidate triggers
+     * in parallel on {@code pool}. Commands are still sent in trigger order, on the thread calling
+     * {@link #processLine}.
+     */
+    public Builder setParallelism(ForkJoinPool pool, int parallelThreshold) {
+      checkArgument(parallelThreshold > 0, "parallelThreshold must be positive");
+      this.pool = pool;
+      this.parallelThreshold = parallelThreshold;
+      return this;
+    }
+
+    /**
+     * Remembers the matches of up to {@code cacheSize} distinct lines, so repeated lines skip
+     * trigger evaluation altogether. 0 disables caching.
+     */
+    public Builder setCacheSize(long cacheSize) {
+      checkArgument(cacheSize >= 0, "cacheSize must not be negative");
+      this.cacheSize = cacheSize;
+      return this;
+    }
+
+    public Triggers build() {
+      return new Triggers(this);
+    }
+  }
+
+  /** Returns the hit, miss and eviction counts of the line cache, all 0 if it's disabled. */
+  public CacheStats getCacheStats() {
+    return cache != null ? cache.stats() : NO_CACHE_STATS;
   }
 
   /**
@@ -50,29 +182,150 @@ public class Triggers {
    * @return {@code true} if the line had a triggered processed
    */
   public boolean processLine(ParsedAnsiText line, BiConsumer<Integer, String> command) {
-    if (line.getText().isEmpty()) {
+    String text = line.getText();
+    if (text.isEmpty()) {
       return false;
     }
 
+    AnsiColor foregroundColor = line.getFirstStyleOrDefault().getForegroundColor();
+    if (cache == null) {
+      return processText(text, foregroundColor, command);
+    }
+
+    CacheKey key = CacheKey.create(text, foregroundColor);
+    ImmutableList<TriggerMatch> matches = cache.getIfPresent(key);
+    if (matches == null) {
+      ImmutableList.Builder<TriggerMatch> builder = ImmutableList.builder();
+      processText(
+          text, foregroundColor, (id, expanded) -> builder.add(TriggerMatch.create(id, expanded)));
+      matches = builder.build();
+      cache.put(key, matches);
+    }
+
+    for (TriggerMatch match : matches) {
+      command.accept(match.getId(), match.getCommand());
+    }
+    return !matches.isEmpty();
+  }
+
+  private boolean processText(
+      String text, AnsiColor foregroundColor, BiConsumer<Integer, String> command) {
+    CompiledTrigger[] colorBucket = colorTriggers[foregroundColor.ordinal()];
+    if (colorBucket.length == 0 && anyTriggers.length == 0) {
+      return false;
+    }
+
+    int count = collectCandidates(colorBucket, triggerIndex.findCandidates(text), candidates);
+    if (pool != null && colorBucket.length + anyTriggers.length >= parallelThreshold) {
+      // the tasks get their own copy, since they may outlive a failed invoke
+      return processLineInParallel(text, Arrays.copyOf(candidates, count), count, command);
+    }
+
     boolean foundMatch = false;
-    for (CompiledTrigger trigger : compiledTriggers) {
-      if (!trigger.getExpectedColor().equals(Color.ANY)
-          && !trigger
-              .getExpectedColor()
-              .equals(toProtoColor(line.getFirstAttributeOrDefault().getForegroundColor()))) {
-        continue;
+    for (int i = 0; i < count; ++i) {
+      String expandedCommand = evaluate(candidates[i], text);
+      if (expandedCommand != null) {
+        foundMatch = true;
+        command.accept(candidates[i].getId(), expandedCommand);
       }
+    }
+    return foundMatch;
+  }
 
-      Matcher matcher = trigger.getPattern().matcher(line.getText());
-      if (matcher.matches()) {
-        foundMatch = true;
-        command.accept(trigger.getId(), matcher.replaceAll(trigger.getCommand()));
+  /**
+   * Merges {@code colorBucket} with {@link #anyTriggers} into {@code triggers} in configuration
+   * order, keeping only the {@code candidates}.
+   *
+   * @return the number of triggers written
+   */
+  private int collectCandidates(
+      CompiledTrigger[] colorBucket, BitSet candidates, CompiledTrigger[] triggers) {
+    int count = 0;
+    int colorIndex = 0;
+    int anyIndex = 0;
+    while (colorIndex < colorBucket.length || anyIndex < anyTriggers.length) {
+      CompiledTrigger trigger;
+      if (anyIndex == anyTriggers.length
+          || (colorIndex < colorBucket.length
+              && colorBucket[colorIndex].getIndex() < anyTriggers[anyIndex].getIndex())) {
+        trigger = colorBucket[colorIndex++];
+      } else {
+        trigger = anyTriggers[anyIndex++];
       }
+
+      if (candidates.get(trigger.getIndex())) {
+        triggers[count++] = trigger;
+      }
+    }
+    return count;
+  }
+
+  private boolean processLineInParallel(
+      String text, CompiledTrigger[] triggers, int count, BiConsumer<Integer, String> command) {
+    String[] expandedCommands = new String[count];
+    if (count >= parallelThreshold) {
+      pool.invoke(new EvaluateTask(triggers, text, expandedCommands, 0, count));
+    } else {
+      new EvaluateTask(triggers, text, expandedCommands, 0, count).evaluate();
     }
 
+    boolean foundMatch = false;
+    for (int i = 0; i < count; ++i) {
+      if (expandedCommands[i] != null) {
+        foundMatch = true;
+        command.accept(triggers[i].getId(), expandedCommands[i]);
+      }
+    }
     return foundMatch;
   }
 
+  /** Evaluates a range of triggers, writing each one's expanded command, or null if no match. */
+  private static final class EvaluateTask extends RecursiveAction {
+    private final CompiledTrigger[] triggers;
+    private final String text;
+    private final String[] expandedCommands;
+    private final int start;
+    private final int end;
+
+    private EvaluateTask(
+        CompiledTrigger[] triggers, String text, String[] expandedCommands, int start, int end) {
+      this.triggers = triggers;
+      this.text = text;
+      this.expandedCommands = expandedCommands;
+      this.start = start;
+      this.end = end;
+    }
+
+    @Override
+    protected void compute() {
+      if (end - start <= PARALLEL_CHUNK_SIZE) {
+        evaluate();
+        return;
+      }
+
+      int middle = (start + end) >>> 1;
+      invokeAll(
+          new EvaluateTask(triggers, text, expandedCommands, start, middle),
+          new EvaluateTask(triggers, text, expandedCommands, middle, end));
+    }
+
+    private void evaluate() {
+      for (int i = start; i < end; ++i) {
+        expandedCommands[i] = Triggers.evaluate(triggers[i], text);
+      }
+    }
+  }
+
+  /** Returns the trigger's command with its groups substituted, or null if it doesn't match. */
+  @Nullable
+  private static String evaluate(CompiledTrigger trigger, String text) {
+    Matcher matcher = trigger.getPattern().matcher(text);
+    if (!matcher.matches()) {
+      return null;
+    }
+    return matcher.replaceAll(trigger.getCommand());
+  }
+
   private static Color toProtoColor(AnsiColor color) {
     return Color.valueOf(color.name());
   }
@@ -0,0 +1,156 @@
+package com.jeffreys.scripts.tascript;
+
+import com.google.common.collect.ImmutableMap;
+import com.jeffreys.common.io.SegmentedLog.Direction;
+import com.jeffreys.common.io.SessionJournal;
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Measures how long the BBS takes to respond to each kind of command, from the {@link
+ * SessionJournal}.
+ *
+ * <p>A command's round trip is the time from sending it to receiving the next line. Commands sent
+ * back to back, before anything is received, are all answered by that same line. Commands are
+ * grouped by their first word, so {@code "a orc"} and {@code "a bear"} count as {@code "a"}.
+ *
+ * <p>Commands are looked up by the characters of their first word in an open addressed table, so
+ * only a kind of command seen for the first time allocates.
+ */
+final class CommandLatencyTracker implements SessionJournal.Listener {
+  /** Commands in flight beyond this many aren't measured, which only happens without a BBS. */
+  private static final int MAX_PENDING_COMMANDS = 64;
+  private static final int INITIAL_TABLE_SIZE = 16;
+
+  /** Round trip statistics for one kind of command. */
+  static final class Latency {
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    private void add(long nanos) {
+      ++count;
+      totalNanos += nanos;
+      maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    Duration getAverage() {
+      return count == 0 ? Duration.ZERO : Duration.ofNanos(totalNanos / count);
+    }
+
+    Duration getMaximum() {
+      return Duration.ofNanos(maxNanos);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "count=%d average=%dms max=%dms",
+          count, getAverage().toMillis(), getMaximum().toMillis());
+    }
+  }
+
+  private final Map<String, Latency> latencies = new TreeMap<>();
+  /** The keys of {@link #latencies} and their values, by linear probing from their hash. */
+  private String[] tableKeys = new String[INITIAL_TABLE_SIZE];
+  private Latency[] tableValues = new Latency[INITIAL_TABLE_SIZE];
+  private final Latency[] pendingLatencies = new Latency[MAX_PENDING_COMMANDS];
+  private final long[] pendingNanoTimes = new long[MAX_PENDING_COMMANDS];
+  private int pendingCount;
+
+  @Override
+  public synchronized void onEntry(SessionJournal.Entry entry) {
+    if (entry.getDirection() == Direction.OUTBOUND) {
+      if (entry.length() > 0 && pendingCount < MAX_PENDING_COMMANDS) {
+        pendingLatencies[pendingCount] = getLatency(entry);
+        pendingNanoTimes[pendingCount] = entry.getNanoTime();
+        ++pendingCount;
+      }
+      return;
+    }
+
+    for (int i = 0; i < pendingCount; ++i) {
+      pendingLatencies[i].add(entry.getNanoTime() - pendingNanoTimes[i]);
+      pendingLatencies[i] = null;
+    }
+    pendingCount = 0;
+  }
+
+  private Latency getLatency(SessionJournal.Entry command) {
+    char[] text = command.getTextArray();
+    int end = 0;
+    int hash = 0;
+    while (end < command.length() && text[end] != ' ') {
+      // the same hash as String.hashCode, so keys can be rehashed
+      hash = 31 * hash + text[end++];
+    }
+
+    int mask = tableKeys.length - 1;
+    for (int i = spread(hash) & mask; ; i = (i + 1) & mask) {
+      String key = tableKeys[i];
+      if (key == null) {
+        return addLatency(new String(text, 0, end));
+      }
+      if (regionEquals(key, text, end)) {
+        return tableValues[i];
+      }
+    }
+  }
+
+  private Latency addLatency(String key) {
+    Latency latency = new Latency();
+    latencies.put(key, latency);
+    // keep the table at most half full, so probes stay short
+    if (2 * latencies.size() > tableKeys.length) {
+      tableKeys = new String[2 * tableKeys.length];
+      tableValues = new Latency[tableKeys.length];
+      for (Map.Entry<String, Latency> entry : latencies.entrySet()) {
+        insert(entry.getKey(), entry.getValue());
+      }
+    } else {
+      insert(key, latency);
+    }
+    return latency;
+  }
+
+  private void insert(String key, Latency latency) {
+    int mask = tableKeys.length - 1;
+    int i = spread(key.hashCode()) & mask;
+    while (tableKeys[i] != null) {
+      i = (i + 1) & mask;
+    }
+    tableKeys[i] = key;
+    tableValues[i] = latency;
+  }
+
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+
+  private static boolean regionEquals(String key, char[] text, int length) {
+    if (key.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; ++i) {
+      if (key.charAt(i) != text[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the round trip statistics of each kind of command seen, by its first word. */
+  synchronized ImmutableMap<String, Latency> getLatencies() {
+    return ImmutableMap.copyOf(latencies);
+  }
+
+  @Override
+  public synchronized String toString() {
+    return latencies.toString();
+  }
+}
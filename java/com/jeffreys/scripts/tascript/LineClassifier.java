@@ -0,0 +1,87 @@
+package com.jeffreys.scripts.tascript;
+
+import com.google.common.collect.ImmutableList;
+import com.jeffreys.common.text.AhoCorasick;
+import java.util.Arrays;
+
+/**
+ * Finds every fixed phrase that {@link TAScript} reacts to in a received line with a single scan.
+ *
+ * <p>Call {@link #classify} once per line, then query the phrases. The instance is reused from
+ * line to line, so it is not thread safe.
+ */
+final class LineClassifier {
+  enum Phrase {
+    THE("The "),
+    ATTACKED_YOU_WITH(" attacked you with "),
+    DISCHARGED(" discharged "),
+    JUST_DISCHARGED(" just discharged "),
+    HAS_JUST_ARRIVED_FROM(" has just arrived from "),
+    GREY_ROBED_PRIEST("There is a grey robed priest here."),
+    YOUR_ATTACK_HIT("Your attack hit"),
+    YOUR_SKILLFUL_ATTACK_HIT("Your skillful attack hit"),
+    YOU_DISCHARGED_THE_SPELL("You discharged the spell"),
+    IS_ASKING_TO_JOIN(" is asking to join your group"),
+    HAS_JUST_LEFT(" has just left "),
+    FEEL_VULNERABLE("You suddenly feel very vulnerable!");
+
+    private final String text;
+
+    Phrase(String text) {
+      this.text = text;
+    }
+
+    String getText() {
+      return text;
+    }
+  }
+
+  private static final int NOT_FOUND = -1;
+  private static final Phrase[] PHRASES = Phrase.values();
+  private static final AhoCorasick MATCHER =
+      AhoCorasick.create(
+          Arrays.stream(PHRASES).map(Phrase::getText).collect(ImmutableList.toImmutableList()));
+
+  private final int[] offsets = new int[PHRASES.length];
+  private final AhoCorasick.MatchListener listener = this::onMatch;
+  private String text = "";
+  private boolean matchedAny;
+
+  /** Scans {@code text}, replacing the result of the previous line. */
+  void classify(String text) {
+    this.text = text;
+    Arrays.fill(offsets, NOT_FOUND);
+    matchedAny = false;
+    MATCHER.search(text, listener);
+  }
+
+  private void onMatch(int patternIndex, int start) {
+    // matches are reported in order, so the first one is the equivalent of indexOf
+    if (offsets[patternIndex] == NOT_FOUND) {
+      offsets[patternIndex] = start;
+      matchedAny = true;
+    }
+  }
+
+  /** Returns whether the line contains any phrase at all. */
+  boolean matchedAny() {
+    return matchedAny;
+  }
+
+  /** Returns the offset of the first occurrence of {@code phrase}, or -1 like {@code indexOf}. */
+  int indexOf(Phrase phrase) {
+    return offsets[phrase.ordinal()];
+  }
+
+  boolean contains(Phrase phrase) {
+    return indexOf(phrase) != NOT_FOUND;
+  }
+
+  boolean startsWith(Phrase phrase) {
+    return indexOf(phrase) == 0;
+  }
+
+  boolean isExactly(Phrase phrase) {
+    return startsWith(phrase) && text.length() == phrase.getText().length();
+  }
+}
@@ -2,32 +2,54 @@ package com.jeffreys.scripts.tascript;
 
 import static com.google.common.util.concurrent.Uninterruptibles.sleepUninterruptibly;
 
+import com.google.common.flogger.FluentLogger;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Closer;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.Provides;
 import com.google.inject.Singleton;
+import com.jeffreys.common.io.AsyncLogWriter;
+import com.jeffreys.common.io.ChannelLineReader;
+import com.jeffreys.common.io.JournalWriter;
+import com.jeffreys.common.io.SegmentedLog;
+import com.jeffreys.common.io.SegmentedLog.Direction;
+import com.jeffreys.common.io.SegmentedLogListener;
+import com.jeffreys.common.io.SessionJournal;
 import com.jeffreys.common.proto.Protos;
 import com.jeffreys.common.queue.NonBlockingSupplier;
 import com.jeffreys.common.queue.NonBlockingSuppliers;
+import com.jeffreys.common.queue.WaitStrategy;
 import com.jeffreys.scripts.common.Triggers;
 import com.jeffreys.scripts.tascript.Annotations.LogfilePrintWriter;
 import com.jeffreys.scripts.tascript.Annotations.OutputPrintWriter;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
 import java.time.Clock;
 import java.time.Duration;
-import java.util.Scanner;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 public class Main {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+  private static final Duration DEFAULT_LOG_FLUSH_INTERVAL = Duration.ofSeconds(1);
+  /** How many of the most recent lines sent and received the journal remembers. */
+  private static final int JOURNAL_CAPACITY = 1024;
 
   private static class GuavaSleeper implements Sleeper {
     @Override
@@ -40,13 +62,29 @@ public class Main {
     @Override
     public void configure() {
       bind(Clock.class).toInstance(Clock.systemUTC());
-      bind(Scanner.class).toInstance(new Scanner(System.in));
-      bind(PrintWriter.class)
-          .annotatedWith(OutputPrintWriter.class)
-          .toInstance(new PrintWriter(System.out, /* autoFlush= */ true));
       bind(Sleeper.class).to(GuavaSleeper.class);
     }
 
+    @Provides
+    @Singleton
+    SessionJournal provideSessionJournal(Clock clock, Closer closer) {
+      SessionJournal journal = new SessionJournal(JOURNAL_CAPACITY, clock);
+      CommandLatencyTracker latencyTracker = new CommandLatencyTracker();
+      journal.addListener(latencyTracker);
+      closer.register(() -> logger.atInfo().log("Command latencies: %s", latencyTracker));
+      return journal;
+    }
+
+    @Provides
+    @Singleton
+    @OutputPrintWriter
+    PrintWriter provideOutputPrintWriter(SessionJournal journal) {
+      // TAScript flushes queued commands itself, once per decision step
+      return new PrintWriter(
+          new JournalWriter(journal, Direction.OUTBOUND, new OutputStreamWriter(System.out)),
+          /* autoFlush= */ false);
+    }
+
     @Provides
     Configuration provideConfiguration(Options options) {
       return Protos.parseProtoFromTextFile(options.getConfigFile(), Configuration.class);
@@ -62,20 +100,77 @@ public class Main {
     }
 
     @Provides
+    @Singleton
+    Closer provideCloser() {
+      return Closer.create();
+    }
+
+    @Provides
+    @Singleton
     @LogfilePrintWriter
-    PrintWriter provideLogfilePrintWriter(Configuration configuration)
-        throws FileNotFoundException {
+    PrintWriter provideLogfilePrintWriter(
+        Configuration configuration, SessionJournal journal, Closer closer) throws IOException {
+      // the log gets the same characters that were read, so it matches the input byte for byte
+      Charset charset = getInputCharset(configuration);
+      if (!configuration.getLogFile().isEmpty()
+          && configuration.getLogFormat() == Configuration.LogFormat.BINARY) {
+        // the binary log records the whole journal, commands sent included
+        SegmentedLogListener logListener =
+            closer.register(new SegmentedLogListener(createSegmentedLog(configuration), charset));
+        journal.addListener(logListener);
+        // the journal already has every line received, so only flushing does anything
+        return new PrintWriter(CharStreams.nullWriter(), /* autoFlush= */ false) {
+          @Override
+          public void flush() {
+            logListener.flush();
+          }
+        };
+      }
+
+      AsyncLogWriter logWriter = createAsyncLogWriter(configuration, charset);
+      // registered first, so it runs after the writer is closed and the metrics are final
+      closer.register(() -> logger.atInfo().log("Log writer: %s", logWriter.getMetrics()));
+      closer.register(logWriter);
+      return new PrintWriter(logWriter, /* autoFlush= */ false);
+    }
+
+    private static AsyncLogWriter createAsyncLogWriter(
+        Configuration configuration, Charset charset) throws FileNotFoundException {
       OutputStream outputStream =
           configuration.getLogFile().isEmpty()
               ? ByteStreams.nullOutputStream()
               : new FileOutputStream(configuration.getLogFile());
+      Duration flushInterval =
+          configuration.getLogFlushMilliseconds() > 0
+              ? Duration.ofMillis(configuration.getLogFlushMilliseconds())
+              : DEFAULT_LOG_FLUSH_INTERVAL;
 
-      return new PrintWriter(outputStream, /* autoFlush= */ true);
+      return AsyncLogWriter.builder(outputStream, charset).setFlushInterval(flushInterval).build();
+    }
+
+    private static SegmentedLog createSegmentedLog(Configuration configuration)
+        throws IOException {
+      SegmentedLog.Builder builder =
+          SegmentedLog.builder(Paths.get(configuration.getLogFile()))
+              .setMaxSegments(configuration.getLogMaxSegments())
+              .setMaxTotalBytes(configuration.getLogMaxBytes())
+              .setCompressClosedSegments(configuration.getCompressLogSegments());
+      if (configuration.getLogSegmentBytes() > 0) {
+        builder.setSegmentSize(configuration.getLogSegmentBytes());
+      }
+      return builder.build();
     }
 
     @Provides
     Triggers provideTriggers(Configuration configuration) {
-      return Triggers.of(configuration.getTriggersList());
+      Triggers.Builder builder =
+          Triggers.builder(configuration.getTriggersList())
+              .setCacheSize(configuration.getTriggerCacheSize());
+      if (configuration.getParallelTriggerThreshold() > 0) {
+        builder.setParallelism(
+            ForkJoinPool.commonPool(), configuration.getParallelTriggerThreshold());
+      }
+      return builder.build();
     }
 
     @Provides
@@ -86,29 +181,93 @@ public class Main {
 
     @Provides
     @Singleton
-    NonBlockingSupplier<String> provideNonBlockingSupplier(
-        Scanner scanner, ExecutorService executor) {
-      return NonBlockingSuppliers.createNonBlockingSupplier(
-          /* capacity= */ 256, executor, scanner::nextLine);
+    ChannelLineReader provideChannelLineReader(Configuration configuration) {
+      return ChannelLineReader.create(
+          new FileInputStream(FileDescriptor.in).getChannel(), getInputCharset(configuration));
+    }
+
+    private static Charset getInputCharset(Configuration configuration) {
+      return configuration.getInputCharset().isEmpty()
+          ? StandardCharsets.ISO_8859_1
+          : Charset.forName(configuration.getInputCharset());
+    }
+
+    @Provides
+    @Singleton
+    NonBlockingSupplier<ReceivedLine> provideNonBlockingSupplier(
+        Configuration configuration,
+        ChannelLineReader lineReader,
+        SessionJournal journal,
+        Clock clock,
+        ExecutorService executor) {
+      // lines are parsed on the reader thread, straight from the bytes read, leaving TAScript's
+      // thread free to act on them
+      ReceivedLine.Parser parser =
+          new ReceivedLine.Parser(getInputCharset(configuration), clock);
+      ChannelLineReader.RawLineHandler<ReceivedLine> parseLine =
+          (bytes, length) -> {
+            ReceivedLine line = parser.parse(bytes, length);
+            // journaled as it is read rather than when TAScript gets to it, so it is stamped
+            // with when it arrived
+            journalReceivedLine(journal, line);
+            return line;
+          };
+      // TAScript is the only reader, so it can use the lock-free single consumer queue
+      return NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+          /* capacity= */ 256,
+          executor,
+          () -> lineReader.nextLine(parseLine),
+          WaitStrategy.getDefault());
+    }
+  }
+
+  private static void journalReceivedLine(SessionJournal journal, ReceivedLine line) {
+    try {
+      journal.record(Direction.INBOUND, line.getRawLine());
+    } catch (IOException ex) {
+      // losing a log line isn't worth losing the session over
+      logger
+          .atWarning()
+          .atMostEvery(1, TimeUnit.MINUTES)
+          .withCause(ex)
+          .log("Unable to journal a received line");
     }
   }
 
   public static void main(String[] args) {
     ExecutorService executor = null;
+    Closer closer = null;
+    boolean failed = false;
     try {
       Injector injector =
           Guice.createInjector(new ConfigurationProtoModule(), Options.getModule(args));
+      closer = injector.getInstance(Closer.class);
       TAScript taScript = injector.getInstance(TAScript.class);
       executor = injector.getInstance(ExecutorService.class);
 
       taScript.run();
     } catch (Throwable t) {
       t.printStackTrace();
-      System.exit(1);
+      failed = true;
     } finally {
+      if (closer != null) {
+        closeLogs(closer);
+      }
       if (executor != null) {
         MoreExecutors.shutdownAndAwaitTermination(executor, Duration.ofSeconds(3));
       }
     }
+    // only exit once the tail of the log has been written
+    if (failed) {
+      System.exit(1);
+    }
+  }
+
+  private static void closeLogs(Closer closer) {
+    try {
+      closer.close();
+    } catch (IOException ex) {
+      logger.atWarning().withCause(ex).log("Unable to write the log file");
+    }
   }
 }
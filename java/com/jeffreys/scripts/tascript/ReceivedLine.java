@@ -0,0 +1,77 @@
+package com.jeffreys.scripts.tascript;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.auto.value.AutoValue;
+import com.jeffreys.common.ansi.AnsiColorParser;
+import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiText;
+import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiTextBuffer;
+import com.jeffreys.common.io.ChannelLineReader;
+import java.nio.charset.Charset;
+import java.time.Clock;
+import java.time.Instant;
+
+/** A line received from the BBS, both as sent and with its ANSI escape sequences parsed. */
+@AutoValue
+abstract class ReceivedLine {
+  /** The line as sent, escape sequences included, which is what gets logged. */
+  abstract String getRawLine();
+
+  abstract ParsedAnsiText getParsedText();
+
+  /** When the line was read, which may be a while before the script gets to it. */
+  abstract Instant getReceivedTime();
+
+  static ReceivedLine create(String rawLine, ParsedAnsiText parsedText, Instant receivedTime) {
+    return new AutoValue_ReceivedLine(rawLine, parsedText, receivedTime);
+  }
+
+  /**
+   * Parses consecutive lines into {@link ReceivedLine}s, on whichever thread reads them.
+   *
+   * <p>Colors carry over from one line to the next, so every line of a session has to go through
+   * the same parser, in order. Each line is stamped with the time it is parsed, so parsing on the
+   * reader thread records when it arrived. Not thread safe.
+   */
+  static final class Parser {
+    private final AnsiColorParser ansiColorParser = new AnsiColorParser();
+    private final ParsedAnsiTextBuffer buffer = new ParsedAnsiTextBuffer();
+    private final Charset charset;
+    private final char[] decodeTable;
+    private final Clock clock;
+
+    Parser() {
+      this(ISO_8859_1, Clock.systemUTC());
+    }
+
+    /**
+     * Parses lines whose bytes are in {@code charset}, which must be a single byte charset,
+     * stamping them with {@code clock}.
+     */
+    Parser(Charset charset, Clock clock) {
+      this.charset = charset;
+      this.decodeTable = ChannelLineReader.createDecodeTable(charset);
+      this.clock = clock;
+    }
+
+    ReceivedLine parse(String rawLine) {
+      // parsing into the reused buffer only allocates the immutable result
+      return create(
+          rawLine, ansiColorParser.parseAnsi(rawLine, buffer).immutableCopy(), clock.instant());
+    }
+
+    /**
+     * Parses the first {@code length} undecoded bytes of {@code bytes}, as handed out by {@link
+     * ChannelLineReader#nextLine(ChannelLineReader.RawLineHandler)}.
+     *
+     * <p>The escape sequences are parsed in the same pass that decodes the bytes, so no
+     * intermediate {@link String} is parsed. The raw line is only decoded for logging.
+     */
+    ReceivedLine parse(byte[] bytes, int length) {
+      ParsedAnsiText parsedText =
+          ansiColorParser.parseAnsi(bytes, /* offset= */ 0, length, decodeTable, buffer);
+      return create(
+          new String(bytes, 0, length, charset), parsedText.immutableCopy(), clock.instant());
+    }
+  }
+}
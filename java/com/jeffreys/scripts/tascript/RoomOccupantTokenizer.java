@@ -0,0 +1,251 @@
+package com.jeffreys.scripts.tascript;
+
+import com.google.common.flogger.FluentLogger;
+
+/**
+ * Tokenizes the lines of a room description listing who is here, reporting each occupant to a
+ * listener as a range of the line.
+ *
+ * <p>Lines are scanned in place, a word or name is never copied out of the line, so callers only
+ * pay for the strings they keep.
+ */
+final class RoomOccupantTokenizer {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  /** Receives each group of monsters, like {@code two cave bears}. */
+  @FunctionalInterface
+  interface MonsterListener {
+    /** {@code text[start, end)} is the singular last word of the monster's name. */
+    void onMonsters(CharSequence text, int start, int end, int count);
+  }
+
+  /** Receives each player. */
+  @FunctionalInterface
+  interface PlayerListener {
+    /** {@code text[start, end)} is the player's name. */
+    void onPlayer(CharSequence text, int start, int end);
+  }
+
+  private static final String[] COUNT_WORDS = {
+    "a", "an", "two", "three", "four", "five", "six", "seven", "eight", "nine", "ten"
+  };
+  private static final int[] COUNTS = {1, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+  private static final int NOT_FOUND = -1;
+
+  private RoomOccupantTokenizer() {}
+
+  /**
+   * Reports the monsters in lines like {@code There are two cave bears, a female orc, and an orc
+   * here.}
+   *
+   * <p>Groups are separated by commas. The count is the third word of the first group, the first
+   * word of the groups in the middle and the second word of the last group. The monster is the last
+   * word of each group, except the last group which ends with {@code here.}. Without commas, the
+   * whole line is a single group like the last one.
+   */
+  static void tokenizeMonsters(CharSequence text, MonsterListener listener) {
+    int length = text.length();
+    boolean hasCommas = indexOf(text, ',', 0) > 0;
+    int groupStart = 0;
+    boolean firstGroup = true;
+
+    while (groupStart <= length) {
+      int groupEnd = hasCommas ? indexOf(text, ',', groupStart) : NOT_FOUND;
+      boolean lastGroup = groupEnd == NOT_FOUND;
+      if (lastGroup) {
+        groupEnd = length;
+      }
+
+      int countIndex;
+      if (!hasCommas || firstGroup) {
+        countIndex = 2;
+      } else if (lastGroup) {
+        countIndex = 1;
+      } else {
+        countIndex = 0;
+      }
+      boolean endsWithHere = !hasCommas || lastGroup;
+      tokenizeMonsterGroup(text, groupStart, groupEnd, countIndex, endsWithHere, listener);
+
+      firstGroup = false;
+      groupStart = groupEnd + 1;
+    }
+  }
+
+  /** Finds the count and monster words of one group in a single pass over its words. */
+  private static void tokenizeMonsterGroup(
+      CharSequence text,
+      int start,
+      int end,
+      int countIndex,
+      boolean endsWithHere,
+      MonsterListener listener) {
+    int countStart = NOT_FOUND;
+    int countEnd = NOT_FOUND;
+    // the last two words seen
+    int lastStart = NOT_FOUND;
+    int lastEnd = NOT_FOUND;
+    int previousStart = NOT_FOUND;
+    int previousEnd = NOT_FOUND;
+    int words = 0;
+
+    int i = start;
+    while (true) {
+      while (i < end && text.charAt(i) == ' ') {
+        ++i;
+      }
+      if (i == end) {
+        break;
+      }
+      int wordStart = i;
+      while (i < end && text.charAt(i) != ' ') {
+        ++i;
+      }
+
+      if (words == countIndex) {
+        countStart = wordStart;
+        countEnd = i;
+      }
+      previousStart = lastStart;
+      previousEnd = lastEnd;
+      lastStart = wordStart;
+      lastEnd = i;
+      ++words;
+    }
+
+    int monsterStart = endsWithHere ? previousStart : lastStart;
+    int monsterEnd = endsWithHere ? previousEnd : lastEnd;
+    int count = countStart == NOT_FOUND ? NOT_FOUND : getCount(text, countStart, countEnd);
+    if (count == NOT_FOUND || monsterStart == NOT_FOUND) {
+      // something went wrong, so handle gracefully
+      logger.atWarning().log("Found weird shit: %d:%s", countIndex, text.subSequence(start, end));
+      return;
+    }
+
+    listener.onMonsters(
+        text, monsterStart, removePluralSuffix(text, monsterStart, monsterEnd), count);
+  }
+
+  /**
+   * Reports the players in lines like {@code Todd is here.}, {@code Todd and Rush are here.} or
+   * {@code Dwarven Lord, Star Lord, and Todd are here.}
+   */
+  static void tokenizePlayers(CharSequence text, PlayerListener listener) {
+    int length = text.length();
+    if (indexOf(text, ',', 0) > 0) {
+      int nameStart = 0;
+      while (true) {
+        int nameEnd = indexOf(text, ',', nameStart);
+        if (nameEnd == NOT_FOUND) {
+          break;
+        }
+        reportTrimmed(text, nameStart, nameEnd, listener);
+        nameStart = nameEnd + 1;
+      }
+
+      // the last one is like 'and Todd are here.'
+      nameStart = Math.min(skipSpaces(text, nameStart, length) + "and ".length(), length);
+      int nameEnd = lastIndexOf(text, " are here", length);
+      reportTrimmed(text, nameStart, nameEnd > nameStart ? nameEnd : length, listener);
+      return;
+    }
+
+    int isHere = indexOf(text, " is here", 0);
+    if (isHere != NOT_FOUND) {
+      listener.onPlayer(text, 0, isHere);
+      return;
+    }
+
+    int and = indexOf(text, " and ", 0);
+    int areHere = lastIndexOf(text, " are here", length);
+    if (and != NOT_FOUND && areHere != NOT_FOUND) {
+      listener.onPlayer(text, 0, and);
+      listener.onPlayer(text, and + " and ".length(), areHere);
+    }
+  }
+
+  /** Returns whether {@code text[start, end)} is {@code value}. */
+  static boolean regionEquals(CharSequence text, int start, int end, String value) {
+    if (end - start != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < value.length(); ++i) {
+      if (text.charAt(start + i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Returns the number {@code text[start, end)} spells out, or -1 if it isn't one. */
+  private static int getCount(CharSequence text, int start, int end) {
+    for (int i = 0; i < COUNT_WORDS.length; ++i) {
+      if (regionEquals(text, start, end, COUNT_WORDS[i])) {
+        return COUNTS[i];
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  /** Returns the end of the singular form of the word {@code text[start, end)}. */
+  private static int removePluralSuffix(CharSequence text, int start, int end) {
+    if (endsWith(text, start, end, "ves")) {
+      return end - 3;
+    }
+    if (endsWith(text, start, end, "es")) {
+      return end - 2;
+    }
+    if (endsWith(text, start, end, "s") || endsWith(text, start, end, "i")) {
+      return end - 1;
+    }
+    return end;
+  }
+
+  private static boolean endsWith(CharSequence text, int start, int end, String suffix) {
+    int suffixStart = end - suffix.length();
+    return suffixStart >= start && regionEquals(text, suffixStart, end, suffix);
+  }
+
+  private static void reportTrimmed(
+      CharSequence text, int start, int end, PlayerListener listener) {
+    start = skipSpaces(text, start, end);
+    while (end > start && text.charAt(end - 1) == ' ') {
+      --end;
+    }
+    listener.onPlayer(text, start, end);
+  }
+
+  private static int skipSpaces(CharSequence text, int start, int end) {
+    while (start < end && text.charAt(start) == ' ') {
+      ++start;
+    }
+    return start;
+  }
+
+  private static int indexOf(CharSequence text, char c, int from) {
+    for (int i = from; i < text.length(); ++i) {
+      if (text.charAt(i) == c) {
+        return i;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  private static int indexOf(CharSequence text, String value, int from) {
+    for (int i = from; i <= text.length() - value.length(); ++i) {
+      if (regionEquals(text, i, i + value.length(), value)) {
+        return i;
+      }
+    }
+    return NOT_FOUND;
+  }
+
+  private static int lastIndexOf(CharSequence text, String value, int end) {
+    for (int i = end - value.length(); i >= 0; --i) {
+      if (regionEquals(text, i, i + value.length(), value)) {
+        return i;
+      }
+    }
+    return NOT_FOUND;
+  }
+}
@@ -0,0 +1,91 @@
+package com.jeffreys.scripts.tascript;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Learns the BBS's combat round cadence from when your damage lines arrive, and predicts when the
+ * next round starts so the script acts right at it instead of after a fixed pause.
+ *
+ * <p>Damage lines arriving together belong to the same round. The round time is a moving average
+ * of the gaps between rounds, where a gap spanning several rounds without damage is divided up.
+ * Jitter is a moving average of how far each round started from where it was predicted. Not thread
+ * safe.
+ */
+final class RoundScheduler {
+  /** Damage lines this close to the start of a round belong to that round. */
+  private static final Duration SAME_ROUND = Duration.ofMillis(500);
+  /** Gaps longer than this mean combat stopped, so they aren't measured. */
+  private static final Duration MAX_GAP = Duration.ofSeconds(10);
+  /** Weight of each new sample in the round time, as a shift, i.e. 1/8. */
+  private static final int ROUND_TIME_SHIFT = 3;
+  /** Weight of each new sample in the jitter, as a shift, i.e. 1/4. */
+  private static final int JITTER_SHIFT = 2;
+
+  @Nullable private Instant lastRoundStart;
+  private long roundTimeNanos;
+  private long jitterNanos;
+  private long rounds;
+
+  /** Records a damage line received at {@code time}. */
+  void onDamageLine(Instant time) {
+    if (lastRoundStart == null) {
+      lastRoundStart = time;
+      return;
+    }
+
+    long gapNanos = Duration.between(lastRoundStart, time).toNanos();
+    if (gapNanos < SAME_ROUND.toNanos()) {
+      return;
+    }
+    lastRoundStart = time;
+    if (gapNanos > MAX_GAP.toNanos()) {
+      return;
+    }
+
+    ++rounds;
+    if (roundTimeNanos == 0) {
+      roundTimeNanos = gapNanos;
+      return;
+    }
+
+    long elapsedRounds = Math.max(1, Math.round((double) gapNanos / roundTimeNanos));
+    long predictedNanos = elapsedRounds * roundTimeNanos;
+    jitterNanos += (Math.abs(gapNanos - predictedNanos) - jitterNanos) >> JITTER_SHIFT;
+    roundTimeNanos += (gapNanos / elapsedRounds - roundTimeNanos) >> ROUND_TIME_SHIFT;
+  }
+
+  /**
+   * Returns how long to wait from {@code now} until the next round starts, allowing for jitter, or
+   * {@code fallback} if the round time isn't known yet. Never waits longer than {@code fallback}.
+   */
+  Duration getDelay(Instant now, Duration fallback) {
+    if (roundTimeNanos == 0) {
+      return fallback;
+    }
+
+    long sinceLastNanos = Duration.between(lastRoundStart, now).toNanos();
+    long untilNextNanos = roundTimeNanos - Math.floorMod(sinceLastNanos, roundTimeNanos);
+    Duration delay = Duration.ofNanos(untilNextNanos + jitterNanos);
+    return delay.compareTo(fallback) < 0 ? delay : fallback;
+  }
+
+  /** Returns the measured round time, if enough rounds have been seen. */
+  Optional<Duration> getRoundTime() {
+    return roundTimeNanos == 0 ? Optional.empty() : Optional.of(Duration.ofNanos(roundTimeNanos));
+  }
+
+  /** Returns how far rounds typically start from where they were predicted. */
+  Duration getJitter() {
+    return Duration.ofNanos(jitterNanos);
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "rounds=%d roundTime=%dms jitter=%dms",
+        rounds, Duration.ofNanos(roundTimeNanos).toMillis(), getJitter().toMillis());
+  }
+}
@@ -6,23 +6,29 @@ import static com.google.common.base.Preconditions.checkState;
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.common.flogger.FluentLogger;
-import com.jeffreys.common.ansi.AnsiColorParser;
-import com.jeffreys.common.ansi.AnsiColorParser.AnsiCharacterAttribute;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.jeffreys.common.ansi.AnsiColorParser.AnsiColor;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiStyle;
 import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiText;
 import com.jeffreys.common.queue.NonBlockingSupplier;
 import com.jeffreys.scripts.common.Triggers;
 import com.jeffreys.scripts.tascript.Annotations.LogfilePrintWriter;
 import com.jeffreys.scripts.tascript.Annotations.OutputPrintWriter;
+import com.jeffreys.scripts.tascript.Configuration.WakeEvent;
+import com.jeffreys.scripts.tascript.LineClassifier.Phrase;
 import java.io.PrintWriter;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -33,7 +39,6 @@ import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
-import java.util.function.BiConsumer;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -42,32 +47,21 @@ public class TAScript {
   private static final int ST_INDEX = 46;
 
   private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(3);
+  /** The most lines taken from {@link #lineSupplier} at once, about a screen of room text. */
+  private static final int MAX_LINE_BATCH = 64;
   private static final Duration ATTACK_TIMEOUT = Duration.ofSeconds(3);
   private static final Duration HEAL_TIMEOUT = Duration.ofSeconds(3);
 
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
-  private static final Splitter COMMA_SPLITTER = Splitter.on(',').trimResults();
   private static final Splitter SPACE_SPLITTER = Splitter.on(' ').trimResults().omitEmptyStrings();
   private static final GetTargetResult EMPTY_TARGET_RESULT =
       GetTargetResult.create(/* target= */ null, /* count= */ 0, /* isPlayer= */ false);
-  private static final ImmutableMap<String, Integer> TEXT_TO_COUNT =
-      ImmutableMap.<String, Integer>builder()
-          .put("a", 1)
-          .put("an", 1)
-          .put("two", 2)
-          .put("three", 3)
-          .put("four", 4)
-          .put("five", 5)
-          .put("six", 6)
-          .put("seven", 7)
-          .put("eight", 8)
-          .put("nine", 9)
-          .put("ten", 10)
-          .build();
 
-  private final NonBlockingSupplier<String> lineSupplier;
+  private final NonBlockingSupplier<ReceivedLine> lineSupplier;
+  /** Lines already taken from {@link #lineSupplier} but not yet preprocessed. */
+  private final ArrayDeque<ReceivedLine> pendingLines = new ArrayDeque<>(MAX_LINE_BATCH);
   private final PrintWriter output;
-  private final AnsiColorParser ansiColorParser = new AnsiColorParser();
+  private final LineClassifier lineClassifier = new LineClassifier();
   private final Configuration configuration;
   private final Movements movements;
   private final Triggers triggers;
@@ -78,18 +72,49 @@ public class TAScript {
   private final Duration movePauseDuration;
   private final Set<String> groupMembers = new HashSet<>();
   private final Stats[] stats = new Stats[] {new Stats(), new Stats()};
+  private final WorldState worldState;
+  private final RoundScheduler roundScheduler = new RoundScheduler();
+  private final ImmutableSet<WakeEvent> wakeEvents;
 
   private String adjustedUsername;
   private boolean needsYari = false;
 
+  // parse replies out of every line received, to keep worldState up to date
+  private PlayerStatusSendUntilHandler vitalsObserver = new PlayerStatusSendUntilHandler();
+  private GroupMemberStatusSendUntilHandler groupObserver = new GroupMemberStatusSendUntilHandler();
+  @Nullable private GetTargetSendUntilHandler roomObserver;
+
+  /**
+   * The status query a pause sent watching for {@link WakeEvent#LOW_HEALTH}, until its reply is
+   * used or skipped by the next status handler, so only one is ever waiting for its reply.
+   */
+  @Nullable private PlayerStatusSendUntilHandler pauseStatusQuery;
+  /** Whether a command was sent after {@link #pauseStatusQuery}, making its reply out of date. */
+  private boolean pauseStatusOutdated;
+
+  /** Commands printed to {@link #output} since it was last flushed. */
+  private int pendingCommands;
+  private long commandsSent;
+  private long outputWrites;
+  private long attackRounds;
+
+  /*
+   * The exceptions below are control flow, thrown for lines that arrive all the time in busy
+   * rooms. They carry no stack trace and a single instance of each is thrown every time, so
+   * throwing one costs no more than a return.
+   */
+
   static class ResumeableException extends RuntimeException {
     private ResumeableException(String msg) {
-      super(msg);
+      super(
+          msg, /* cause= */ null, /* enableSuppression= */ false, /* writableStackTrace= */ false);
     }
   }
 
   @VisibleForTesting
   static class AttackException extends ResumeableException {
+    static final AttackException INSTANCE = new AttackException("You've been attacked!");
+
     private AttackException(String msg) {
       super(msg);
     }
@@ -97,6 +122,8 @@ public class TAScript {
 
   @VisibleForTesting
   static class ArrivalException extends ResumeableException {
+    static final ArrivalException INSTANCE = new ArrivalException("Something has arrived");
+
     private ArrivalException(String msg) {
       super(msg);
     }
@@ -104,15 +131,27 @@ public class TAScript {
 
   @VisibleForTesting
   static class LogoffException extends RuntimeException {
+    static final LogoffException INSTANCE = new LogoffException();
+
     private LogoffException() {
-      super();
+      super(
+          /* message= */ null,
+          /* cause= */ null,
+          /* enableSuppression= */ false,
+          /* writableStackTrace= */ false);
     }
   }
 
   @VisibleForTesting
   static class DeadException extends RuntimeException {
+    static final DeadException INSTANCE = new DeadException("You're dead!");
+
     private DeadException(String reason) {
-      super(reason);
+      super(
+          reason,
+          /* cause= */ null,
+          /* enableSuppression= */ false,
+          /* writableStackTrace= */ false);
     }
   }
 
@@ -130,7 +169,7 @@ public class TAScript {
 
   @Inject
   TAScript(
-      NonBlockingSupplier<String> lineSupplier,
+      NonBlockingSupplier<ReceivedLine> lineSupplier,
       @OutputPrintWriter PrintWriter output,
       Configuration configuration,
       Movements movements,
@@ -148,6 +187,10 @@ public class TAScript {
     this.logFile = logFile;
     this.sleeper = sleeper;
     this.movePauseDuration = Duration.ofMillis(configuration.getMovePauseMilliseconds());
+    this.worldState =
+        new WorldState(
+            clock, Duration.ofMillis(configuration.getWorldStateMaxAgeMilliseconds()));
+    this.wakeEvents = Sets.immutableEnumSet(configuration.getWakeEventsList());
 
     playersToAttack.addAll(configuration.getPlayersToAttackList());
   }
@@ -163,18 +206,26 @@ public class TAScript {
     try {
       mainLoop();
     } catch (Throwable t) {
-      output.print("x\r\n\r\n");
-      output.flush();
+      logger.atInfo().log("Trigger cache: %s", triggers.getCacheStats());
+      logger.atInfo().log("World state: %s", worldState);
+      logger.atInfo().log("Rounds: %s", roundScheduler);
+      logger.atInfo().log(
+          "Output: %d commands in %d writes over %d attack rounds",
+          commandsSent, outputWrites, attackRounds);
+      send("x\r\n\r\n");
+      // flushes the exit command along with the logoff command
       sendLogoffCommand();
+      // the log is only flushed periodically, make sure it has everything leading up to this
+      logFile.flush();
       throw t;
     }
   }
 
   private void move() {
-    sleeper.sleep(movePauseDuration);
+    // the status isn't looked at again before moving, so don't ask for it
+    sleep(movePauseDuration, /* queryStatus= */ false);
 
-    output.printf("%s\r\n", movements.getNextMovement());
-    output.flush();
+    send(String.format("%s\r\n", movements.getNextMovement()));
 
     // TODO get targets, just in case, and ignore it since we refresh anyways
     // getTargets();
@@ -218,137 +269,34 @@ public class TAScript {
     }
   }
 
-  /** Handles the case like 'Rush, Dude, and Todd are here' */
-  private static ImmutableSet<String> parseCommaSeparatedMultiplePlayers(String line) {
-    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
-    Iterator<String> strings = COMMA_SPLITTER.split(line).iterator();
-    while (strings.hasNext()) {
-      String player = strings.next();
-
-      if (strings.hasNext()) {
-        builder.add(player);
-        continue;
-      }
-
-      // strip off 'and ' prefix
-      player = player.substring(4);
-      // strip off ' are here.' suffix
-      int idx = player.lastIndexOf(" are here");
-      if (idx > 0) {
-        player = player.substring(0, idx);
-      }
-
-      builder.add(player);
-    }
-    return builder.build();
-  }
-
-  /** Handles the case like 'Todd and Rush are here' */
-  private static ImmutableSet<String> parseTwoSeparatedMultiplePlayers(String line) {
-    int idx = line.indexOf(" and ");
-    String first = line.substring(0, idx);
-    int endIdx = line.lastIndexOf(" are here");
-    String second = line.substring(idx + 5, endIdx);
-
-    return ImmutableSet.of(first, second);
-  }
-
-  private static ImmutableSet<String> parseSinglePlayerInRoom(String line) {
-    int idx = line.indexOf(" is here");
-    return ImmutableSet.of(line.substring(0, idx));
-  }
-
   @VisibleForTesting
   static ImmutableSet<String> getPlayersInRoom(ParsedAnsiText line) {
-    if (line.getText().indexOf(',') > 0) {
-      return parseCommaSeparatedMultiplePlayers(line.getText());
-    } else if (line.getText().contains(" is here")) {
-      return parseSinglePlayerInRoom(line.getText());
-    } else if (line.getText().contains(" and ") && line.getText().contains(" are here")) {
-      return parseTwoSeparatedMultiplePlayers(line.getText());
-    }
-
-    return ImmutableSet.of();
-  }
-
-  /**
-   * Adds the monsters in {@code words} to the {@code map}.
-   *
-   * <p>
-   */
-  private static void parseMonstersIntoConsumer(
-      List<String> words, int countIndex, int lastIndex, BiConsumer<String, Integer> consumer) {
-    Integer count = TEXT_TO_COUNT.get(words.get(countIndex));
-    if (count == null) {
-      // something went wrong, so handle gracefully
-      logger.atWarning().log("Found weird shit: %d:%d:%s", countIndex, lastIndex, words);
-      return;
-    }
-    String monster = removePluralSuffix(words.get(lastIndex));
-    consumer.accept(monster, count);
-  }
-
-  /**
-   * Parses monsters in {@code text} into a map.
-   *
-   * <p>There is a cave bear, a female orc, and a lizard woman here.
-   */
-  private static ImmutableMap<String, Integer> parseCommaSeparatedMultipleMonsters(String text) {
-    Map<String, Integer> map = new LinkedHashMap<>();
-    List<String> monsterGroups = COMMA_SPLITTER.splitToList(text);
-    BiConsumer<String, Integer> consumer =
-        (monster, count) ->
-            map.compute(
-                monster,
-                (mapMonster, mapCount) -> {
-                  if (mapCount != null) {
-                    return count + mapCount;
-                  }
-                  return count;
-                });
-
-    // parse the first section, skip over "there is" or "there are"
-    List<String> words = SPACE_SPLITTER.splitToList(monsterGroups.get(0));
-    parseMonstersIntoConsumer(
-        words, /* countIndex= */ 2, /* lastIndex= */ words.size() - 1, consumer);
-
-    // the ones in the middle is just raw monsters
-    for (int i = 1; i < monsterGroups.size() - 1; ++i) {
-      words = SPACE_SPLITTER.splitToList(monsterGroups.get(i));
-      parseMonstersIntoConsumer(
-          words, /* countIndex= */ 0, /* lastIndex= */ words.size() - 1, consumer);
-    }
-
-    // the last one starts with "and" and ends with "here"
-    words = SPACE_SPLITTER.splitToList(monsterGroups.get(monsterGroups.size() - 1));
-    parseMonstersIntoConsumer(
-        words, /* countIndex= */ 1, /* lastIndex= */ words.size() - 2, consumer);
-    return ImmutableMap.copyOf(map);
-  }
-
-  private static ImmutableMap<String, Integer> parseSingleMonsterInRoom(String text) {
-    ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
-    List<String> words = SPACE_SPLITTER.splitToList(text);
-    parseMonstersIntoConsumer(
-        words, /* countIndex= */ 2, /* lastIndex= */ words.size() - 2, builder::put);
+    ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+    RoomOccupantTokenizer.tokenizePlayers(
+        line.getText(), (text, start, end) -> builder.add(text.subSequence(start, end).toString()));
     return builder.build();
   }
 
   @VisibleForTesting
   static ImmutableMap<String, Integer> getMonstersInRoom(ParsedAnsiText line) {
-    if (line.getText().indexOf(',') > 0) {
-      return parseCommaSeparatedMultipleMonsters(line.getText());
-    }
-
-    return parseSingleMonsterInRoom(line.getText());
+    Map<String, Integer> map = new LinkedHashMap<>();
+    RoomOccupantTokenizer.tokenizeMonsters(
+        line.getText(),
+        (text, start, end, count) ->
+            map.merge(text.subSequence(start, end).toString(), count, Integer::sum));
+    return ImmutableMap.copyOf(map);
   }
 
   private class GetTargetSendUntilHandler implements SendUntilHandler {
     private final StringBuilder monsterBuilder = new StringBuilder(/* capacity= */ 256);
+    private final RoomOccupantTokenizer.PlayerListener playerListener = this::onPlayer;
+    private final RoomOccupantTokenizer.MonsterListener monsterListener = this::onMonsters;
+    /** Indexes into {@code playersToAttack} of the players seen on the current line. */
+    private final BitSet matchedPlayers = new BitSet();
     private String target = null;
     private int count = 0;
     private boolean isPlayer = false;
-    private AnsiCharacterAttribute firstAttribute;
+    private AnsiStyle firstStyle;
     private GetTargetResult result;
 
     @Override
@@ -356,23 +304,24 @@ public class TAScript {
       // TODO handle case where we can't see
 
       // check if we are at the end
-      if (line.getFirstAttributeOrDefault().getForegroundColor().equals(AnsiColor.CYAN)
+      if (line.getFirstStyleOrDefault().getForegroundColor() == AnsiColor.CYAN
           && line.getText().contains("floor")) {
         return setResult(GetTargetResult.create(target, count, isPlayer));
       }
 
-      if (line.getFirstAttributeOrDefault().getForegroundColor().equals(AnsiColor.MAGENTA)) {
-        ImmutableSet<String> players = getPlayersInRoom(line);
-        Set<String> intersection = Sets.intersection(playersToAttack, players);
-        if (!intersection.isEmpty()) {
-          // attack the player now
-          target = getFirstWord(Iterables.getFirst(intersection, ""));
-          count += intersection.size();
+      if (line.getFirstStyleOrDefault().getForegroundColor() == AnsiColor.MAGENTA) {
+        matchedPlayers.clear();
+        RoomOccupantTokenizer.tokenizePlayers(line.getText(), playerListener);
+        if (!matchedPlayers.isEmpty()) {
+          // attack the player now, preferring the order they're configured in
+          target = getFirstWord(Iterables.get(playersToAttack, matchedPlayers.nextSetBit(0)));
+          // a name listed twice is still one player
+          count += matchedPlayers.cardinality();
           isPlayer = true;
         }
       }
 
-      if (line.getFirstAttributeOrDefault().getForegroundColor().equals(AnsiColor.RED)) {
+      if (line.getFirstStyleOrDefault().getForegroundColor() == AnsiColor.RED) {
         parseRedMonsterLine(line);
       }
 
@@ -391,7 +340,7 @@ public class TAScript {
       //    starts accumulation
       if (monsterBuilder.length() > 0 || (lineStartsWithThere && !lineEndsWithHere)) {
         if (monsterBuilder.length() == 0) {
-          firstAttribute = line.getFirstAttributeOrDefault();
+          firstStyle = line.getFirstStyleOrDefault();
         } else {
           monsterBuilder.append(' ');
         }
@@ -405,14 +354,28 @@ public class TAScript {
           lineToParse = line;
         } else {
           // synthesize a new line that concatenates all
-          lineToParse = ParsedAnsiText.create(monsterBuilder.toString(), firstAttribute);
+          lineToParse = ParsedAnsiText.create(monsterBuilder.toString(), firstStyle);
         }
 
-        ImmutableMap<String, Integer> monsters = getMonstersInRoom(lineToParse);
-        count += monsters.values().stream().mapToInt(Integer::intValue).sum();
-        if (!monsters.isEmpty() && target == null) {
-          target = Iterables.getFirst(monsters.keySet(), "");
+        RoomOccupantTokenizer.tokenizeMonsters(lineToParse.getText(), monsterListener);
+      }
+    }
+
+    private void onPlayer(CharSequence text, int start, int end) {
+      int index = 0;
+      for (String player : playersToAttack) {
+        if (RoomOccupantTokenizer.regionEquals(text, start, end, player)) {
+          matchedPlayers.set(index);
+          return;
         }
+        ++index;
+      }
+    }
+
+    private void onMonsters(CharSequence text, int start, int end, int monsters) {
+      count += monsters;
+      if (target == null) {
+        target = text.subSequence(start, end).toString();
       }
     }
 
@@ -450,6 +413,11 @@ public class TAScript {
 
   @VisibleForTesting
   GetTargetResult getTargets() {
+    Optional<GetTargetResult> room = worldState.getRoom();
+    if (room.isPresent()) {
+      return room.get();
+    }
+
     GetTargetSendUntilHandler getTargetSendUntilHandler = new GetTargetSendUntilHandler();
 
     sendUntil("\r\n", getTargetSendUntilHandler);
@@ -582,13 +550,22 @@ public class TAScript {
 
   @VisibleForTesting
   GroupMemberStatus getGroupStatus() {
+    Optional<GroupMemberStatus> groupStatus = worldState.getGroupStatus();
+    if (groupStatus.isPresent()) {
+      return updateGroupMembers(groupStatus.get());
+    }
+
     GroupMemberStatusSendUntilHandler handler = new GroupMemberStatusSendUntilHandler();
     sendUntil("gr\r\n", handler);
 
+    return updateGroupMembers(handler.getResult());
+  }
+
+  private GroupMemberStatus updateGroupMembers(GroupMemberStatus status) {
     groupMembers.clear();
-    groupMembers.addAll(handler.getResult().getGroupMembers());
+    groupMembers.addAll(status.getGroupMembers());
 
-    return handler.getResult();
+    return status;
   }
 
   private interface SendUntilHandler {
@@ -601,51 +578,131 @@ public class TAScript {
     }
   }
 
-  private void sendUntil(String message, SendUntilHandler handler, Duration timeout) {
-    output.print(message);
-    output.flush();
+  /**
+   * A command sent to the server, waiting for its {@link SendUntilHandler} to recognize the reply.
+   * The command is sent again every {@code timeout} until it does.
+   */
+  private final class PendingQuery {
+    private final String message;
+    private final SendUntilHandler handler;
+    private final Duration timeout;
+    private final SettableFuture<Void> completion = SettableFuture.create();
+    private Instant repeatTime;
 
-    Instant repeatTime = clock.instant().plus(timeout);
+    private PendingQuery(String message, SendUntilHandler handler, Duration timeout) {
+      this.message = message;
+      this.handler = handler;
+      this.timeout = timeout;
+    }
 
-    while (true) {
+    private void send(Instant now) {
+      sendQuery(message);
+      markSent(now);
+    }
+
+    /** Starts waiting for the reply to a message already sent. */
+    private void markSent(Instant now) {
+      repeatTime = now.plus(timeout);
+    }
+
+    private boolean isResendDue(Instant now) {
+      return !now.isBefore(repeatTime);
+    }
+
+    private void resend(Instant now) {
+      send(now);
+      handler.onResend();
+    }
+
+    private void onLineReceived(ParsedAnsiText line) {
+      if (handler.onLineReceived(line)) {
+        completion.set(null);
+      }
+    }
+
+    private void handleException(RuntimeException ex) {
       try {
-        ParsedAnsiText line = getNextLine();
-        if (line != null && handler.onLineReceived(line)) {
-          return;
-        }
-      } catch (RuntimeException ex) {
         handler.handleException(ex);
+      } catch (RuntimeException rethrown) {
+        completion.setException(rethrown);
+        throw rethrown;
       }
+    }
 
-      // repeat if nothing has happened
-      Instant now = clock.instant();
-      if (now.isAfter(repeatTime)) {
-        output.print(message);
-        output.flush();
+    /** Returns a future that completes once the handler has recognized the reply. */
+    ListenableFuture<Void> getCompletion() {
+      return completion;
+    }
+  }
 
-        handler.onResend();
+  /** Sends {@code message} and starts waiting for the reply, see {@link #awaitQueries}. */
+  private PendingQuery startQuery(String message, SendUntilHandler handler, Duration timeout) {
+    PendingQuery query = new PendingQuery(message, handler, timeout);
+    query.send(clock.instant());
+    return query;
+  }
 
-        repeatTime = now.plus(timeout);
+  /**
+   * Reads lines until every query has completed. Each line goes to the oldest query still waiting,
+   * since the server answers in order. Waiting for a line never runs past the next resend, so
+   * queries are resent on schedule rather than up to a whole poll late.
+   *
+   * <p>When a query is resent, every query after it is resent too, so the replies arrive in the
+   * same order as the queries waiting for them.
+   */
+  private void awaitQueries(List<PendingQuery> queries) {
+    int completed = 0;
+    while (true) {
+      while (completed < queries.size() && queries.get(completed).getCompletion().isDone()) {
+        ++completed;
+      }
+      if (completed == queries.size()) {
+        return;
+      }
+
+      Instant now = clock.instant();
+      boolean resending = false;
+      Instant nextRepeatTime = null;
+      for (int i = completed; i < queries.size(); ++i) {
+        PendingQuery query = queries.get(i);
+        resending |= query.isResendDue(now);
+        if (resending) {
+          query.resend(now);
+        }
+        if (nextRepeatTime == null || query.repeatTime.isBefore(nextRepeatTime)) {
+          nextRepeatTime = query.repeatTime;
+        }
+      }
+
+      PendingQuery current = queries.get(completed);
+      try {
+        ParsedAnsiText line = getNextLine(Duration.between(now, nextRepeatTime));
+        if (line != null) {
+          current.onLineReceived(line);
+        }
+      } catch (RuntimeException ex) {
+        current.handleException(ex);
       }
     }
   }
 
+  private void sendUntil(String message, SendUntilHandler handler, Duration timeout) {
+    awaitQueries(ImmutableList.of(startQuery(message, handler, timeout)));
+  }
+
   private void sendUntil(String message, SendUntilHandler handler) {
     sendUntil(message, handler, DEFAULT_TIMEOUT);
   }
 
   private void removeFromGroup(String player) {
-    output.printf("remove %s\r\n", player);
-    output.flush();
+    send(String.format("remove %s\r\n", player));
   }
 
   private void attack(GetTargetResult targets) {
     String attackString = String.format("a %s\r\n", targets.getTarget());
     for (int i = 0; i < configuration.getNumberOfPhysicalAttacks(); ++i) {
-      output.print(attackString);
+      send(attackString);
     }
-
-    output.flush();
   }
 
   private void performAdditionalAttackCommands(GetTargetResult targets) {
@@ -657,10 +714,10 @@ public class TAScript {
     }
 
     if (additionalCommand != null) {
-      output.printf(
+      send(String.format(
           "%s\r\n",
           additionalCommand.replace(
-              "$1", Optional.ofNullable(targets.getTarget()).orElse("NO_TARGET")));
+              "$1", Optional.ofNullable(targets.getTarget()).orElse("NO_TARGET"))));
     }
   }
 
@@ -680,6 +737,8 @@ public class TAScript {
 
     abstract Optional<GroupMemberStatus> getGroupMemberStatus();
 
+    abstract Builder toBuilder();
+
     static Builder builder() {
       return new AutoValue_TAScript_PlayerStatus.Builder()
           .setHungry(false)
@@ -715,11 +774,17 @@ public class TAScript {
     private final PlayerStatus.Builder builder = PlayerStatus.builder();
     private boolean hasMana = false;
     private boolean hasVitality = false;
+    private boolean complete = false;
 
     private PlayerStatus.Builder getPlayerStatusBuilder() {
       return builder;
     }
 
+    /** Returns whether a whole reply has been received. */
+    private boolean isComplete() {
+      return complete;
+    }
+
     @Override
     public boolean onLineReceived(ParsedAnsiText line) {
       if (line.getText().startsWith("Mana:")) {
@@ -739,7 +804,8 @@ public class TAScript {
         } else if (words.get(1).equals("Thirsty")) {
           builder.setThirsty(true);
         }
-        return hasMana && hasVitality;
+        complete = hasMana && hasVitality;
+        return complete;
       }
       return false;
     }
@@ -747,17 +813,75 @@ public class TAScript {
 
   @VisibleForTesting
   PlayerStatus getPlayerStatus() {
-    PlayerStatusSendUntilHandler playerStatusSendUntilHandler = new PlayerStatusSendUntilHandler();
+    boolean needsGroupStatus =
+        !configuration.getGroupHealSpell().isEmpty() || configuration.getHealGroup();
+    Optional<PlayerStatus> vitals = worldState.getVitals();
+    if (vitals.isPresent()) {
+      if (!needsGroupStatus) {
+        return vitals.get();
+      }
+      return vitals.get().toBuilder().setGroupMemberStatus(getGroupStatus()).build();
+    }
+
+    PlayerStatusSendUntilHandler playerStatusSendUntilHandler = takeStatusHandler();
+    PendingQuery statusQuery = startStatusQuery(playerStatusSendUntilHandler);
+
+    if (needsGroupStatus) {
+      Optional<GroupMemberStatus> groupStatus = worldState.getGroupStatus();
+      if (groupStatus.isPresent()) {
+        awaitQueries(ImmutableList.of(statusQuery));
+        return playerStatusSendUntilHandler
+            .getPlayerStatusBuilder()
+            .setGroupMemberStatus(updateGroupMembers(groupStatus.get()))
+            .build();
+      }
 
-    sendUntil("he\r\n", playerStatusSendUntilHandler);
+      // pipeline both queries, so they cost a single round trip
+      GroupMemberStatusSendUntilHandler groupStatusHandler =
+          new GroupMemberStatusSendUntilHandler();
+      awaitQueries(
+          ImmutableList.of(
+              statusQuery, startQuery("gr\r\n", groupStatusHandler, DEFAULT_TIMEOUT)));
 
-    PlayerStatus.Builder builder = playerStatusSendUntilHandler.getPlayerStatusBuilder();
+      return playerStatusSendUntilHandler
+          .getPlayerStatusBuilder()
+          .setGroupMemberStatus(updateGroupMembers(groupStatusHandler.getResult()))
+          .build();
+    }
+
+    awaitQueries(ImmutableList.of(statusQuery));
+
+    return playerStatusSendUntilHandler.getPlayerStatusBuilder().build();
+  }
 
-    if (!configuration.getGroupHealSpell().isEmpty() || configuration.getHealGroup()) {
-      builder.setGroupMemberStatus(getGroupStatus());
+  /**
+   * Returns the handler for the next status reply, which is the {@link #pauseStatusQuery} while no
+   * command has been sent since. An out of date reply still to come is skipped by {@link
+   * #getNextLine}.
+   */
+  private PlayerStatusSendUntilHandler takeStatusHandler() {
+    if (pauseStatusQuery != null && !pauseStatusOutdated) {
+      return pauseStatusQuery;
+    }
+    if (pauseStatusQuery != null && pauseStatusQuery.isComplete()) {
+      pauseStatusQuery = null;
     }
+    return new PlayerStatusSendUntilHandler();
+  }
 
-    return builder.build();
+  /** Sends a status query for {@code handler}, unless it is the pause's query already sent. */
+  private PendingQuery startStatusQuery(PlayerStatusSendUntilHandler handler) {
+    if (handler != pauseStatusQuery) {
+      return startQuery("he\r\n", handler, DEFAULT_TIMEOUT);
+    }
+
+    pauseStatusQuery = null;
+    PendingQuery query = new PendingQuery("he\r\n", handler, DEFAULT_TIMEOUT);
+    query.markSent(clock.instant());
+    if (handler.isComplete()) {
+      query.completion.set(null);
+    }
+    return query;
   }
 
   private PlayerStatus getPlayerStatusIgnoringResumeableExceptions() {
@@ -777,6 +901,7 @@ public class TAScript {
       if (targetResults.getCount() <= 0) {
         return;
       }
+      ++attackRounds;
 
       // if they are a player, remove them from our group
       if (targetResults.isPlayer()) {
@@ -796,7 +921,7 @@ public class TAScript {
 
       performAdditionalAttackCommands(targetResults);
 
-      sleeper.sleep(ATTACK_TIMEOUT);
+      sleep(getRoundDelay(ATTACK_TIMEOUT));
     }
   }
 
@@ -884,18 +1009,16 @@ public class TAScript {
         return;
       }
 
-      sleeper.sleep(HEAL_TIMEOUT);
+      sleep(getRoundDelay(HEAL_TIMEOUT));
     }
   }
 
   private void castYari() {
-    output.printf("c yari %s\r\n", adjustedUsername);
-    output.flush();
+    send(String.format("c yari %s\r\n", adjustedUsername));
   }
 
   private void doSustenanceCommand() {
-    output.printf("%s\r\n", configuration.getSustenanceCommand());
-    output.flush();
+    send(String.format("%s\r\n", configuration.getSustenanceCommand()));
   }
   /**
    * Performs any necessary actions before you move.
@@ -943,25 +1066,189 @@ public class TAScript {
         }
       }
 
-      sleeper.sleep(DEFAULT_TIMEOUT);
+      sleep(getRoundDelay(DEFAULT_TIMEOUT));
     }
   }
 
-  private void sendLogoffCommand() {
-    output.print(configuration.getLogOffCommand());
+  /**
+   * Queues a command to be sent. Commands are written out together by {@link #flushOutput}, which
+   * happens whenever the script is about to wait, so a decision step costs a single write.
+   */
+  private void send(String command) {
+    // whatever the command does may change the world
+    worldState.invalidate();
+    pauseStatusOutdated = true;
+    sendQuery(command);
+  }
+
+  /** Queues a command that only asks the server for information, see {@link #send}. */
+  private void sendQuery(String command) {
+    output.print(command);
+    ++pendingCommands;
+  }
+
+  /** Writes out every command queued by {@link #send}. */
+  private void flushOutput() {
+    if (pendingCommands == 0) {
+      return;
+    }
     output.flush();
+    ++outputWrites;
+    commandsSent += pendingCommands;
+    pendingCommands = 0;
+  }
+
+  /**
+   * Returns how long to pause before acting again, which is until the next combat round with
+   * adaptive round timing, or {@code fallback} without.
+   */
+  private Duration getRoundDelay(Duration fallback) {
+    if (!configuration.getAdaptiveRoundTiming()) {
+      return fallback;
+    }
+    return roundScheduler.getDelay(clock.instant(), fallback);
+  }
+
+  /** Sends the queued commands, then pauses for {@code duration}. */
+  private void sleep(Duration duration) {
+    sleep(duration, /* queryStatus= */ true);
+  }
+
+  /**
+   * Sends the queued commands, then pauses for {@code duration}. {@code queryStatus} is whether
+   * the pause may ask for the status to watch for {@link WakeEvent#LOW_HEALTH}.
+   */
+  private void sleep(Duration duration, boolean queryStatus) {
+    flushOutput();
+    if (wakeEvents.isEmpty()) {
+      sleeper.sleep(duration);
+    } else {
+      waitForWakeEvent(duration, queryStatus);
+    }
+    // the script pauses to let things change
+    worldState.invalidate();
+  }
+
+  /**
+   * Pauses for {@code duration} while reading lines, returning or throwing as soon as one of the
+   * {@link #wakeEvents} is received. Any other event ends the reading, and is thrown once the rest
+   * of the pause has passed, which is when a plain sleep would have run into it.
+   *
+   * <p>Nothing else asks for the player's status during a pause, so watching for {@link
+   * WakeEvent#LOW_HEALTH} sends a status query when the pause starts, unless {@link
+   * #pauseStatusQuery} is still waiting for its reply. The next status handler uses the reply, so
+   * the status isn't asked for twice, or skips it if a command was sent since.
+   *
+   * <p>Unlike a plain sleep, which leaves lines queued for whatever reads next, lines that
+   * preprocessing doesn't consume are discarded once they've been checked for a status reply.
+   */
+  private void waitForWakeEvent(Duration duration, boolean queryStatus) {
+    Instant deadline = clock.instant().plus(duration);
+    boolean watchHealth = queryStatus && wakeEvents.contains(WakeEvent.LOW_HEALTH);
+    if (watchHealth) {
+      sendPauseStatusQuery();
+    }
+
+    while (true) {
+      Duration remaining = Duration.between(clock.instant(), deadline);
+      if (remaining.isNegative() || remaining.isZero()) {
+        return;
+      }
+
+      boolean awaitingStatus = pauseStatusQuery != null && !pauseStatusQuery.isComplete();
+      try {
+        getNextLine(remaining);
+      } catch (ResumeableException | DeadException ex) {
+        if (isWakeEvent(ex)) {
+          throw ex;
+        }
+        remaining = Duration.between(clock.instant(), deadline);
+        if (!remaining.isNegative()) {
+          sleeper.sleep(remaining);
+        }
+        throw ex;
+      }
+
+      if (watchHealth && awaitingStatus) {
+        if (pauseStatusQuery == null) {
+          // the reply was out of date and skipped, so ask again
+          sendPauseStatusQuery();
+        } else if (pauseStatusQuery.isComplete()
+            && isLowHealth(pauseStatusQuery.getPlayerStatusBuilder().build())) {
+          return;
+        }
+      }
+    }
+  }
+
+  /**
+   * Feeds a line to {@link #pauseStatusQuery} while it waits for its reply, whatever is reading
+   * lines, so the reply isn't missed. Returns true for the line completing a reply that is out of
+   * date, which is dropped, so no other status handler completes with that reply.
+   */
+  private boolean isOutdatedStatusReply(ParsedAnsiText line) {
+    if (pauseStatusQuery == null
+        || pauseStatusQuery.isComplete()
+        || !pauseStatusQuery.onLineReceived(line)
+        || !pauseStatusOutdated) {
+      return false;
+    }
+    pauseStatusQuery = null;
+    return true;
+  }
+
+  /** Sends {@link #pauseStatusQuery}, unless the last one is still waiting for its reply. */
+  private void sendPauseStatusQuery() {
+    if (pauseStatusQuery != null && !pauseStatusQuery.isComplete()) {
+      return;
+    }
+    pauseStatusQuery = new PlayerStatusSendUntilHandler();
+    pauseStatusOutdated = false;
+    sendQuery("he\r\n");
+    flushOutput();
+  }
+
+  private boolean isWakeEvent(RuntimeException ex) {
+    if (ex instanceof AttackException) {
+      return wakeEvents.contains(WakeEvent.ATTACK);
+    } else if (ex instanceof ArrivalException) {
+      return wakeEvents.contains(WakeEvent.ARRIVAL);
+    } else if (ex instanceof DeadException) {
+      return wakeEvents.contains(WakeEvent.DEATH);
+    }
+    return false;
+  }
+
+  private boolean isLowHealth(PlayerStatus playerStatus) {
+    return (double) playerStatus.getVitality() / (double) playerStatus.getMaxVitality()
+        <= configuration.getHealPercentage();
+  }
+
+  @VisibleForTesting
+  long getCommandsSent() {
+    return commandsSent;
+  }
+
+  @VisibleForTesting
+  long getOutputWrites() {
+    return outputWrites;
+  }
+
+  private void sendLogoffCommand() {
+    send(configuration.getLogOffCommand());
+    // logging off is urgent, it can't wait for the script to pause
+    flushOutput();
   }
 
   private void logoff() {
     sendLogoffCommand();
-    throw new LogoffException();
+    throw LogoffException.INSTANCE;
   }
 
   private void castGroupHeal() {
     checkArgument(!configuration.getGroupHealSpell().isEmpty());
 
-    output.printf("c %s\r\n", configuration.getGroupHealSpell());
-    output.flush();
+    send(String.format("c %s\r\n", configuration.getGroupHealSpell()));
   }
 
   private void castHeal(
@@ -970,21 +1257,18 @@ public class TAScript {
     checkArgument(!healSpellIsAttack || target != null);
 
     if (healSpellIsAttack) {
-      output.printf("c %s %s\r\n", healSpell, target);
+      send(String.format("c %s %s\r\n", healSpell, target));
     } else {
-      output.printf("c %s %s\r\n", healSpell, recipient);
+      send(String.format("c %s %s\r\n", healSpell, recipient));
     }
-    output.flush();
   }
 
   private void castAttackSpell(GetTargetResult target) {
     if (!configuration.getGroupAttackSpell().isEmpty()
         && (target.getCount() > 1 || configuration.getAttackSpell().isEmpty())) {
-      output.printf("c %s\r\n", configuration.getGroupAttackSpell());
-      output.flush();
+      send(String.format("c %s\r\n", configuration.getGroupAttackSpell()));
     } else if (!configuration.getAttackSpell().isEmpty()) {
-      output.printf("c %s %s\r\n", configuration.getAttackSpell(), target.getTarget());
-      output.flush();
+      send(String.format("c %s %s\r\n", configuration.getAttackSpell(), target.getTarget()));
     }
   }
 
@@ -1047,28 +1331,28 @@ public class TAScript {
     return false;
   }
 
-  private boolean isArrivedLine(ParsedAnsiText line) {
-    return line.getText().contains(" has just arrived from ");
+  private boolean isArrivedLine() {
+    return lineClassifier.contains(Phrase.HAS_JUST_ARRIVED_FROM);
   }
 
   private boolean isAttackLine(ParsedAnsiText line) {
-    if (!line.getFirstAttributeOrDefault().getForegroundColor().equals(AnsiColor.RED)) {
+    if (line.getFirstStyleOrDefault().getForegroundColor() != AnsiColor.RED) {
       return false;
     }
 
-    int i = line.getText().indexOf(" attacked you with ");
+    int i = lineClassifier.indexOf(Phrase.ATTACKED_YOU_WITH);
     if (i > 0) {
-      if (!line.getText().startsWith("The ")) {
+      if (!lineClassifier.startsWith(Phrase.THE)) {
         String player = line.getText().substring(0, i);
         addPlayerToAttack(player);
         return true;
       }
     }
 
-    i = line.getText().indexOf(" discharged ");
+    i = lineClassifier.indexOf(Phrase.DISCHARGED);
     if (i > 0) {
-      if (!line.getText().startsWith("The ")) {
-        int j = line.getText().indexOf(" just discharged ");
+      if (!lineClassifier.startsWith(Phrase.THE)) {
+        int j = lineClassifier.indexOf(Phrase.JUST_DISCHARGED);
         boolean isAreaSpell = j > 0;
         String player = line.getText().substring(0, isAreaSpell ? j : i);
         // if directly attacked or area attacked by a non-group member, aggro on them
@@ -1081,22 +1365,26 @@ public class TAScript {
     return false;
   }
 
-  private static boolean isDeadLine(ParsedAnsiText line) {
-    return line.getFirstAttributeOrDefault().getForegroundColor().equals(AnsiColor.GREEN)
-        && line.getText().contains("There is a grey robed priest here.");
+  private boolean isDeadLine(ParsedAnsiText line) {
+    return line.getFirstStyleOrDefault().getForegroundColor() == AnsiColor.GREEN
+        && lineClassifier.contains(Phrase.GREY_ROBED_PRIEST);
   }
 
-  private boolean isDamageLine(ParsedAnsiText line) {
+  private boolean isDamageLine(ParsedAnsiText line, Instant receivedTime) {
     AttackType attackType;
-    if (line.getText().startsWith("Your attack hit")
-        || line.getText().startsWith("Your skillful attack hit")) {
+    if (lineClassifier.startsWith(Phrase.YOUR_ATTACK_HIT)
+        || lineClassifier.startsWith(Phrase.YOUR_SKILLFUL_ATTACK_HIT)) {
       attackType = AttackType.Physical;
-    } else if (line.getText().startsWith("You discharged the spell")) {
+    } else if (lineClassifier.startsWith(Phrase.YOU_DISCHARGED_THE_SPELL)) {
       attackType = AttackType.Spell;
     } else {
       return false;
     }
 
+    // your damage is reported as each round resolves, so what matters is when the line arrived,
+    // which can be well before it is handled if the script was paused
+    roundScheduler.onDamageLine(receivedTime);
+
     Iterator<String> iterator = SPACE_SPLITTER.split(line.getText()).iterator();
     while (iterator.hasNext()) {
       String word = iterator.next();
@@ -1109,7 +1397,7 @@ public class TAScript {
   }
 
   private boolean isJoinLine(ParsedAnsiText line) {
-    int i = line.getText().indexOf(" is asking to join your group");
+    int i = lineClassifier.indexOf(Phrase.IS_ASKING_TO_JOIN);
     if (i < 0) {
       return false;
     }
@@ -1122,13 +1410,12 @@ public class TAScript {
 
     addGroupMember(user);
 
-    output.printf("add %s\r\n", getFirstWord(user));
-    output.flush();
+    send(String.format("add %s\r\n", getFirstWord(user)));
     return true;
   }
 
   private boolean isLeaveLine(ParsedAnsiText line) {
-    int i = line.getText().indexOf(" has just left ");
+    int i = lineClassifier.indexOf(Phrase.HAS_JUST_LEFT);
     if (i < 0) {
       return false;
     }
@@ -1139,29 +1426,42 @@ public class TAScript {
   }
 
   private boolean isNeedsYariLine(ParsedAnsiText line) {
-    return line.getFirstAttributeOrDefault().getForegroundColor().equals(AnsiColor.BLUE)
-        && line.getText().equals("You suddenly feel very vulnerable!");
+    return line.getFirstStyleOrDefault().getForegroundColor() == AnsiColor.BLUE
+        && lineClassifier.isExactly(Phrase.FEEL_VULNERABLE);
   }
 
-  private boolean preprocessLine(ParsedAnsiText parsedAnsiText, String rawLine) {
-    logFile.println(rawLine);
-    logFile.flush();
+  private boolean preprocessLine(ReceivedLine line) {
+    ParsedAnsiText parsedAnsiText = line.getParsedText();
+    logFile.println(line.getRawLine());
 
-    triggers.processLine(parsedAnsiText, (id, command) -> output.printf("%s\r\n", command));
+    triggers.processLine(
+        parsedAnsiText, (id, command) -> send(String.format("%s\r\n", command)));
 
     if (isCommandLine(parsedAnsiText)) {
       return true;
+    }
+
+    lineClassifier.classify(parsedAnsiText.getText());
+    if (!lineClassifier.matchedAny()) {
+      // the common case, none of the handlers below can apply
+      return false;
     } else if (isAttackLine(parsedAnsiText)) {
-      throw new AttackException("You've been attacked!");
-    } else if (isArrivedLine(parsedAnsiText)) {
-      throw new ArrivalException("Something has arrived");
+      invalidateWorldState();
+      throw AttackException.INSTANCE;
+    } else if (isArrivedLine()) {
+      invalidateWorldState();
+      throw ArrivalException.INSTANCE;
     } else if (isDeadLine(parsedAnsiText)) {
-      throw new DeadException("You're dead!");
-    } else if (isDamageLine(parsedAnsiText)) {
+      invalidateWorldState();
+      throw DeadException.INSTANCE;
+    } else if (isDamageLine(parsedAnsiText, line.getReceivedTime())) {
+      invalidateWorldState();
       return true;
     } else if (isJoinLine(parsedAnsiText)) {
+      invalidateWorldState();
       return true;
     } else if (isLeaveLine(parsedAnsiText)) {
+      invalidateWorldState();
       return true;
     } else if (isNeedsYariLine(parsedAnsiText)) {
       needsYari = true;
@@ -1171,6 +1471,42 @@ public class TAScript {
     return false;
   }
 
+  /**
+   * Feeds a line that made it through preprocessing to the observers, recording any complete
+   * reply in {@link #worldState}, even if nobody asked for it.
+   */
+  private void observeLine(ParsedAnsiText line) {
+    if (!worldState.isEnabled()) {
+      return;
+    }
+
+    if (vitalsObserver.onLineReceived(line)) {
+      worldState.setVitals(vitalsObserver.getPlayerStatusBuilder().build());
+      vitalsObserver = new PlayerStatusSendUntilHandler();
+    }
+    if (groupObserver.onLineReceived(line)) {
+      worldState.setGroupStatus(groupObserver.getResult());
+      groupObserver = new GroupMemberStatusSendUntilHandler();
+    }
+
+    // a room description starts with the room's name
+    if (line.getText().startsWith("You're in ")) {
+      roomObserver = new GetTargetSendUntilHandler();
+    }
+    if (roomObserver != null && roomObserver.onLineReceived(line)) {
+      worldState.setRoom(roomObserver.getResult());
+      roomObserver = null;
+    }
+  }
+
+  /** Discards the world state, and any partial reply since it may have been interrupted. */
+  private void invalidateWorldState() {
+    worldState.invalidate();
+    vitalsObserver = new PlayerStatusSendUntilHandler();
+    groupObserver = new GroupMemberStatusSendUntilHandler();
+    roomObserver = null;
+  }
+
   private static String getUsernameFromSTLine(String line) {
     return line.substring(2, 32).trim();
   }
@@ -1183,8 +1519,7 @@ public class TAScript {
     ParsedAnsiText line;
     int i;
     // first ditch group we're in
-    output.print("gr\r\n");
-    output.flush();
+    send("gr\r\n");
 
     while (true) {
       line = getNextLine();
@@ -1195,8 +1530,7 @@ public class TAScript {
       if (line.getText().lastIndexOf("ST:", ST_INDEX) == ST_INDEX) {
         String user = getFirstWord(getUsernameFromSTLine(line.getText()));
         // ok now nod to the user
-        output.printf("nod %s\r\n", user);
-        output.flush();
+        send(String.format("nod %s\r\n", user));
       } else if ((i = line.getText().indexOf(" nodded to you in agreement!")) >= 0) {
         return line.getText().substring(0, i);
       }
@@ -1207,16 +1541,38 @@ public class TAScript {
   @CheckReturnValue
   @Nullable
   ParsedAnsiText getNextLine() {
+    return getNextLine(DEFAULT_TIMEOUT);
+  }
+
+  /**
+   * Returns the next line that isn't consumed by preprocessing, or null if none arrives within
+   * {@code timeout}.
+   */
+  @CheckReturnValue
+  @Nullable
+  private ParsedAnsiText getNextLine(Duration timeout) {
+    Instant deadline = clock.instant().plus(timeout);
     while (true) {
       try {
-        String line = lineSupplier.get(DEFAULT_TIMEOUT);
+        ReceivedLine line = pendingLines.pollFirst();
         if (line == null) {
-          return null;
+          // about to wait for the server, so it needs everything we've decided to send
+          flushOutput();
+          Duration remaining = Duration.between(clock.instant(), deadline);
+          if (remaining.isNegative()
+              || lineSupplier.drainTo(pendingLines, MAX_LINE_BATCH, remaining) == 0) {
+            return null;
+          }
+          line = pendingLines.removeFirst();
         }
 
-        ParsedAnsiText parsedText = ansiColorParser.parseAnsi(line);
-        if (!preprocessLine(parsedText, line)) {
-          return parsedText;
+        if (!preprocessLine(line)) {
+          // the reader thread has already parsed the line
+          ParsedAnsiText parsedText = line.getParsedText();
+          if (!isOutdatedStatusReply(parsedText)) {
+            observeLine(parsedText);
+            return parsedText;
+          }
         }
       } catch (InterruptedException ex) {
         Thread.currentThread().interrupt();
@@ -1231,22 +1587,11 @@ public class TAScript {
     }
   }
 
-  private static String removePluralSuffix(String text) {
-    if (text.endsWith("ves")) {
-      return text.substring(0, text.length() - 3);
-    }
-    if (text.endsWith("es")) {
-      return text.substring(0, text.length() - 2);
-    }
-    if (text.endsWith("s") || text.endsWith("i")) {
-      return text.substring(0, text.length() - 1);
-    }
-    return text;
-  }
-
   @VisibleForTesting
   void addPlayerToAttack(String playerName) {
     playersToAttack.add(playerName);
+    // the room's targets depend on who is being attacked
+    worldState.invalidateRoom();
   }
 
   @VisibleForTesting
@@ -0,0 +1,114 @@
+package com.jeffreys.scripts.tascript;
+
+import com.jeffreys.scripts.tascript.TAScript.GetTargetResult;
+import com.jeffreys.scripts.tascript.TAScript.GroupMemberStatus;
+import com.jeffreys.scripts.tascript.TAScript.PlayerStatus;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * The room, vitals and group status most recently seen in the BBS output, whether or not the
+ * script asked for them, so they can be reused instead of asking again.
+ *
+ * <p>Each part is returned only while it is younger than the maximum age, and everything is
+ * discarded by {@link #invalidate} whenever something may have changed it, such as the script
+ * sending a command. A maximum age of zero disables it, nothing is ever returned. Not thread safe.
+ */
+final class WorldState {
+  /** A value and when it was seen. */
+  private static final class Observation<T> {
+    @Nullable private T value;
+    private Instant time = Instant.MIN;
+
+    void set(T value, Instant time) {
+      this.value = value;
+      this.time = time;
+    }
+
+    void clear() {
+      value = null;
+    }
+  }
+
+  private final Clock clock;
+  private final Duration maxAge;
+  private final Observation<GetTargetResult> room = new Observation<>();
+  private final Observation<PlayerStatus> vitals = new Observation<>();
+  private final Observation<GroupMemberStatus> groupStatus = new Observation<>();
+  private long hits;
+  private long misses;
+
+  WorldState(Clock clock, Duration maxAge) {
+    this.clock = clock;
+    this.maxAge = maxAge;
+  }
+
+  boolean isEnabled() {
+    return !maxAge.isZero();
+  }
+
+  /** Returns the room's targets, as they were when the room was last described. */
+  Optional<GetTargetResult> getRoom() {
+    return getIfFresh(room);
+  }
+
+  void setRoom(GetTargetResult value) {
+    set(room, value);
+  }
+
+  /** Returns your own status, without any group status. */
+  Optional<PlayerStatus> getVitals() {
+    return getIfFresh(vitals);
+  }
+
+  void setVitals(PlayerStatus value) {
+    set(vitals, value);
+  }
+
+  Optional<GroupMemberStatus> getGroupStatus() {
+    return getIfFresh(groupStatus);
+  }
+
+  void setGroupStatus(GroupMemberStatus value) {
+    set(groupStatus, value);
+  }
+
+  /** Only discards the room, for when what makes a target changes. */
+  void invalidateRoom() {
+    room.clear();
+  }
+
+  /** Discards everything seen so far. */
+  void invalidate() {
+    room.clear();
+    vitals.clear();
+    groupStatus.clear();
+  }
+
+  private <T> void set(Observation<T> observation, T value) {
+    if (isEnabled()) {
+      observation.set(value, clock.instant());
+    }
+  }
+
+  private <T> Optional<T> getIfFresh(Observation<T> observation) {
+    if (!isEnabled()) {
+      return Optional.empty();
+    }
+    if (observation.value != null
+        && Duration.between(observation.time, clock.instant()).compareTo(maxAge) < 0) {
+      ++hits;
+      return Optional.of(observation.value);
+    }
+    ++misses;
+    return Optional.empty();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("hits=%d misses=%d", hits, misses);
+  }
+}
@@ -0,0 +1,201 @@
+package com.jeffreys.common.ansi;
+
+import static com.google.common.collect.ImmutableList.toImmutableList;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Resources;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiAttribute;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiColor;
+import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiTextBuffer;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Compares the table driven parser against the original switch based one on recorded screens. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AnsiColorParserBenchmark {
+  private static final String SCREENS = "testdata/tele_arena_screens.txt";
+
+  private final AnsiColorParser parser = new AnsiColorParser();
+  private final LegacyAnsiColorParser legacyParser = new LegacyAnsiColorParser();
+  private final ParsedAnsiTextBuffer buffer = new ParsedAnsiTextBuffer();
+
+  private ImmutableList<String> lines;
+  private ImmutableList<byte[]> rawLines;
+
+  @Setup
+  public void loadScreens() throws IOException {
+    String screens =
+        Resources.toString(
+            Resources.getResource(AnsiColorParserBenchmark.class, SCREENS), ISO_8859_1);
+    lines = ImmutableList.copyOf(Splitter.on("\r\n").split(screens));
+    rawLines = lines.stream().map(line -> line.getBytes(ISO_8859_1)).collect(toImmutableList());
+  }
+
+  @Benchmark
+  public void legacyParseAnsi(Blackhole blackhole) {
+    for (String line : lines) {
+      blackhole.consume(legacyParser.parseAnsi(line));
+    }
+  }
+
+  @Benchmark
+  public void parseAnsi(Blackhole blackhole) {
+    for (String line : lines) {
+      blackhole.consume(parser.parseAnsi(line));
+    }
+  }
+
+  @Benchmark
+  public void parseAnsiIntoBuffer(Blackhole blackhole) {
+    for (String line : lines) {
+      blackhole.consume(parser.parseAnsi(line, buffer).getFirstStyleOrDefault());
+    }
+  }
+
+  @Benchmark
+  public void parseAnsiBytesIntoBuffer(Blackhole blackhole) {
+    for (byte[] line : rawLines) {
+      blackhole.consume(parser.parseAnsi(line, 0, line.length, buffer).getFirstStyleOrDefault());
+    }
+  }
+
+  /** The parser as it was before it became table driven, kept as the baseline. */
+  private static final class LegacyAnsiColorParser {
+    private enum AnsiState {
+      NORMAL,
+      ESCAPE,
+      BRACKET,
+      VALUE_ACCUM,
+      WAIT_FOR_ANSI_END
+    }
+
+    private static final char ASCII_ESCAPE = 0x1B;
+    private static final ImmutableSet<Character> ANSI_ENDS =
+        ImmutableSet.of('H', 'h', 'f', 'A', 'B', 'C', 'D', 's', 'u', 'J', 'K', 'm', 'l', 'p');
+
+    private static final class CharacterAttribute {
+      private final char c;
+      private final AnsiColor foregroundColor;
+      private final AnsiColor backgroundColor;
+      private final AnsiAttribute attribute;
+
+      private CharacterAttribute(
+          char c, AnsiColor foregroundColor, AnsiColor backgroundColor, AnsiAttribute attribute) {
+        this.c = c;
+        this.foregroundColor = foregroundColor;
+        this.backgroundColor = backgroundColor;
+        this.attribute = attribute;
+      }
+    }
+
+    private final ArrayList<Integer> values = new ArrayList<>();
+
+    private AnsiColor backgroundColor = AnsiColor.BLACK;
+    private AnsiColor foregroundColor = AnsiColor.WHITE;
+    private AnsiAttribute attribute = AnsiAttribute.NONE;
+    private int accumulator = 0;
+    private AnsiState state = AnsiState.NORMAL;
+
+    private Object parseAnsi(String text) {
+      ImmutableList.Builder<CharacterAttribute> attributeBuilder =
+          ImmutableList.builderWithExpectedSize(text.length());
+      StringBuilder stringBuilder = new StringBuilder(text.length());
+
+      for (int i = 0; i < text.length(); ++i) {
+        CharacterAttribute characterAttribute = parseAnsiCharacter(text.charAt(i));
+        if (characterAttribute != null) {
+          stringBuilder.append(characterAttribute.c);
+          attributeBuilder.add(characterAttribute);
+        }
+      }
+      List<Object> result = new ArrayList<>(2);
+      result.add(stringBuilder.toString());
+      result.add(attributeBuilder.build());
+      return result;
+    }
+
+    private CharacterAttribute parseAnsiCharacter(char c) {
+      switch (state) {
+        case NORMAL:
+          if (c == ASCII_ESCAPE) {
+            state = AnsiState.ESCAPE;
+          } else {
+            return new CharacterAttribute(c, foregroundColor, backgroundColor, attribute);
+          }
+          break;
+        case ESCAPE:
+          if (c == '[') {
+            state = AnsiState.BRACKET;
+          } else {
+            state = AnsiState.NORMAL;
+            return new CharacterAttribute(c, foregroundColor, backgroundColor, attribute);
+          }
+          break;
+        case BRACKET:
+          accumulator = 0;
+          values.clear();
+          if (Character.isDigit(c)) {
+            state = AnsiState.VALUE_ACCUM;
+            accumulator = c - '0';
+          } else {
+            state = AnsiState.WAIT_FOR_ANSI_END;
+          }
+          break;
+        case VALUE_ACCUM:
+          if (c == ';') {
+            values.add(accumulator);
+            accumulator = 0;
+          } else if (Character.isDigit(c)) {
+            accumulator = 10 * accumulator + (c - '0');
+          } else if (ANSI_ENDS.contains(c)) {
+            if (accumulator > 0) {
+              values.add(accumulator);
+            }
+            if (c == 'm') {
+              for (int val : values) {
+                if (val >= 30 && val <= 37) {
+                  foregroundColor = AnsiColor.values()[val - 30];
+                } else if (val >= 40 && val <= 47) {
+                  backgroundColor = AnsiColor.values()[val - 40];
+                } else if (val <= 8) {
+                  attribute = AnsiAttribute.values()[val];
+                }
+              }
+            }
+            values.clear();
+            state = AnsiState.NORMAL;
+          }
+          break;
+        case WAIT_FOR_ANSI_END:
+          if (c == ASCII_ESCAPE) {
+            state = AnsiState.ESCAPE;
+          } else if (ANSI_ENDS.contains(c)) {
+            state = AnsiState.NORMAL;
+          }
+          break;
+      }
+      return null;
+    }
+  }
+}
@@ -2,10 +2,18 @@ package com.jeffreys.common.ansi;
 
 import static com.google.common.truth.Truth.assertThat;
 import static com.jeffreys.junit.Exceptions.assertThrows;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 
 import com.google.common.collect.ImmutableList;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiAttribute;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiAttributeRun;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiCharacterAttribute;
 import com.jeffreys.common.ansi.AnsiColorParser.AnsiColor;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiStyle;
 import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiText;
+import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiTextBuffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -85,4 +93,301 @@ public class AnsiColorParserTest {
     assertThrows(
         IllegalArgumentException.class, () -> ParsedAnsiText.create("Test", ImmutableList.of()));
   }
+
+  @Test
+  public void bufferParse_matchesParseAnsi() {
+    AnsiColorParser bufferParser = new AnsiColorParser();
+    ParsedAnsiTextBuffer buffer = new ParsedAnsiTextBuffer(/* initialCapacity= */ 1);
+
+    for (String str :
+        ImmutableList.of(
+            createBoldColor(AnsiColor.RED, AnsiColor.BLACK) + "There is a cave bear here.",
+            "carries over",
+            "\u001B[K\u001B[2J" + createBoldColor(AnsiColor.CYAN, AnsiColor.BLUE) + "Yo",
+            "")) {
+      ParsedAnsiText expected = ansiColorParser.parseAnsi(str);
+      ParsedAnsiText actual = bufferParser.parseAnsi(str, buffer);
+
+      assertThat(actual).isEqualTo(expected);
+      assertThat(actual.getFirstAttributeOrDefault())
+          .isEqualTo(expected.getFirstAttributeOrDefault());
+      assertThat(buffer.length()).isEqualTo(expected.getText().length());
+    }
+  }
+
+  @Test
+  public void byteParse_matchesParseAnsi() {
+    String str =
+        "junk" + createBoldColor(AnsiColor.YELLOW, AnsiColor.BLACK) + "Gold\u00E9 coins\r\n";
+    byte[] bytes = ("xx" + str).getBytes(ISO_8859_1);
+    ParsedAnsiTextBuffer buffer = new ParsedAnsiTextBuffer();
+
+    ParsedAnsiText actual =
+        new AnsiColorParser().parseAnsi(bytes, /* offset= */ 2, bytes.length - 2, buffer);
+
+    assertThat(actual).isEqualTo(ansiColorParser.parseAnsi(str));
+  }
+
+  @Test
+  public void byteParse_decodeTable_matchesParseAnsi() {
+    Charset cp437 = Charset.forName("IBM437");
+    byte[] allBytes = new byte[256];
+    for (int i = 0; i < allBytes.length; ++i) {
+      allBytes[i] = (byte) i;
+    }
+    char[] decodeTable = new String(allBytes, cp437).toCharArray();
+    String str = createBoldColor(AnsiColor.CYAN, AnsiColor.BLACK) + "\u2591\u2588 a wall \u00E9";
+    byte[] bytes = str.getBytes(cp437);
+    ParsedAnsiTextBuffer buffer = new ParsedAnsiTextBuffer();
+
+    ParsedAnsiText actual =
+        new AnsiColorParser()
+            .parseAnsi(bytes, /* offset= */ 0, bytes.length, decodeTable, buffer);
+
+    assertThat(actual).isEqualTo(ansiColorParser.parseAnsi(str));
+  }
+
+  @Test
+  public void byteBufferParse_consumesRemaining() {
+    String str = createBoldColor(AnsiColor.GREEN, AnsiColor.BLUE) + "A green thing.";
+    ByteBuffer byteBuffer = ByteBuffer.wrap(str.getBytes(ISO_8859_1));
+    ParsedAnsiTextBuffer buffer = new ParsedAnsiTextBuffer();
+
+    ParsedAnsiText actual = new AnsiColorParser().parseAnsi(byteBuffer, buffer);
+
+    assertThat(actual).isEqualTo(ansiColorParser.parseAnsi(str));
+    assertThat(byteBuffer.hasRemaining()).isFalse();
+  }
+
+  @Test
+  public void byteParse_invalidRange_throws() {
+    assertThrows(
+        IndexOutOfBoundsException.class,
+        () ->
+            ansiColorParser.parseAnsi(
+                new byte[4], /* offset= */ 2, /* length= */ 3, new ParsedAnsiTextBuffer()));
+  }
+
+  @Test
+  public void bufferParse_reusesView() {
+    ParsedAnsiTextBuffer buffer = new ParsedAnsiTextBuffer();
+
+    ParsedAnsiText first = ansiColorParser.parseAnsi("first", buffer);
+    ParsedAnsiText copy = first.immutableCopy();
+    ParsedAnsiText second = ansiColorParser.parseAnsi("second", buffer);
+
+    assertThat(second).isSameInstanceAs(first);
+    assertThat(second.getText()).isEqualTo("second");
+    assertThat(copy.getText()).isEqualTo("first");
+  }
+
+  @Test
+  public void packedAttribute_roundTrips() {
+    for (AnsiColor foreground : AnsiColor.values()) {
+      for (AnsiColor background : AnsiColor.values()) {
+        for (AnsiAttribute attribute : AnsiAttribute.values()) {
+          short packed = AnsiColorParser.packAttribute(foreground, background, attribute);
+
+          assertThat(AnsiColorParser.getPackedForegroundColor(packed)).isEqualTo(foreground);
+          assertThat(AnsiColorParser.getPackedBackgroundColor(packed)).isEqualTo(background);
+          assertThat(AnsiColorParser.getPackedAttribute(packed)).isEqualTo(attribute);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void parse_storesAttributeRuns() {
+    String str =
+        createBoldColor(AnsiColor.RED, AnsiColor.BLACK)
+            + "Red "
+            + createBoldColor(AnsiColor.CYAN, AnsiColor.BLACK)
+            + "Cyan"
+            + createBoldColor(AnsiColor.CYAN, AnsiColor.BLACK)
+            + "!";
+
+    ParsedAnsiText parsedAnsi = ansiColorParser.parseAnsi(str);
+
+    assertThat(parsedAnsi.getText()).isEqualTo("Red Cyan!");
+    assertThat(parsedAnsi.getAttributeRuns())
+        .containsExactly(
+            AnsiAttributeRun.create(0, AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.BOLD),
+            AnsiAttributeRun.create(4, AnsiColor.CYAN, AnsiColor.BLACK, AnsiAttribute.BOLD))
+        .inOrder();
+    assertThat(parsedAnsi.getAttribute(3))
+        .isEqualTo(
+            AnsiCharacterAttribute.create(' ', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.BOLD));
+    assertThat(parsedAnsi.getAttribute(8))
+        .isEqualTo(
+            AnsiCharacterAttribute.create(
+                '!', AnsiColor.CYAN, AnsiColor.BLACK, AnsiAttribute.BOLD));
+    assertThat(parsedAnsi.getAttributes()).hasSize(9);
+  }
+
+  @Test
+  public void parsedAnsiText_createWithAttribute_isSingleRun() {
+    ParsedAnsiText text =
+        ParsedAnsiText.create(
+            "There is a cave bear here.",
+            AnsiCharacterAttribute.create(
+                '\0', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE));
+
+    assertThat(text.getAttributeRuns())
+        .containsExactly(
+            AnsiAttributeRun.create(0, AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE));
+    assertThat(text.getFirstAttributeOrDefault())
+        .isEqualTo(
+            AnsiCharacterAttribute.create('T', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE));
+    assertThat(ParsedAnsiText.create("").getAttributeRuns()).isEmpty();
+  }
+
+  @Test
+  public void parsedAnsiText_createWithList_mergesRuns() {
+    ParsedAnsiText text =
+        ParsedAnsiText.create(
+            "ab",
+            ImmutableList.of(
+                AnsiCharacterAttribute.create(
+                    'a', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE),
+                AnsiCharacterAttribute.create(
+                    'b', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE)));
+
+    assertThat(text.getAttributeRuns()).hasSize(1);
+    assertThat(text)
+        .isEqualTo(
+            ParsedAnsiText.create(
+                "ab",
+                AnsiCharacterAttribute.create(
+                    '\0', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE)));
+  }
+
+  @Test
+  public void ansiStyle_isInterned() {
+    for (AnsiColor foreground : AnsiColor.values()) {
+      for (AnsiColor background : AnsiColor.values()) {
+        for (AnsiAttribute attribute : AnsiAttribute.values()) {
+          AnsiStyle style = AnsiStyle.of(foreground, background, attribute);
+
+          assertThat(AnsiStyle.of(foreground, background, attribute)).isSameInstanceAs(style);
+          assertThat(AnsiStyle.fromPacked(style.getPacked())).isSameInstanceAs(style);
+          assertThat(style.getForegroundColor()).isEqualTo(foreground);
+          assertThat(style.getBackgroundColor()).isEqualTo(background);
+          assertThat(style.getAttribute()).isEqualTo(attribute);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void ansiStyle_fromPacked_outOfRange_throws() {
+    assertThrows(
+        IndexOutOfBoundsException.class, () -> AnsiStyle.fromPacked(AnsiStyle.STYLE_COUNT));
+  }
+
+  @Test
+  public void parse_returnsInternedStyles() {
+    ParsedAnsiText parsedAnsi =
+        ansiColorParser.parseAnsi(createBoldColor(AnsiColor.GREEN, AnsiColor.BLACK) + "Hi");
+
+    assertThat(parsedAnsi.getFirstStyleOrDefault())
+        .isSameInstanceAs(AnsiStyle.of(AnsiColor.GREEN, AnsiColor.BLACK, AnsiAttribute.BOLD));
+    assertThat(parsedAnsi.getStyle(1)).isSameInstanceAs(parsedAnsi.getFirstStyleOrDefault());
+    assertThat(ParsedAnsiText.create("").getFirstStyleOrDefault())
+        .isSameInstanceAs(AnsiStyle.getDefault());
+  }
+
+  private AnsiStyle parseStyle(String sgr) {
+    return ansiColorParser.parseAnsi(sgr + "x").getFirstStyleOrDefault();
+  }
+
+  @Test
+  public void sgr_brightColors() {
+    assertThat(parseStyle("\u001B[91;104m"))
+        .isSameInstanceAs(AnsiStyle.of(AnsiColor.RED, AnsiColor.BLUE, AnsiAttribute.NONE));
+  }
+
+  @Test
+  public void sgr_256Colors() {
+    assertThat(parseStyle("\u001B[1;38;5;196;48;5;21m"))
+        .isSameInstanceAs(AnsiStyle.of(AnsiColor.RED, AnsiColor.BLUE, AnsiAttribute.BOLD));
+    assertThat(parseStyle("\u001B[38;5;11m").getForegroundColor()).isEqualTo(AnsiColor.YELLOW);
+    assertThat(parseStyle("\u001B[38;5;255m").getForegroundColor()).isEqualTo(AnsiColor.WHITE);
+    assertThat(parseStyle("\u001B[38;5;232m").getForegroundColor()).isEqualTo(AnsiColor.BLACK);
+  }
+
+  @Test
+  public void sgr_trueColor() {
+    assertThat(parseStyle("\u001B[38;2;0;200;190;48;2;0;0;0;4m"))
+        .isSameInstanceAs(
+            AnsiStyle.of(AnsiColor.CYAN, AnsiColor.BLACK, AnsiAttribute.UNDERLINE));
+  }
+
+  @Test
+  public void sgr_extendedColorArgumentsAreNotAttributes() {
+    // the 5 and 2 selectors must not be read as SLOW_BLINK or FAINT
+    assertThat(parseStyle("\u001B[1;32m\u001B[38;5;2m").getAttribute())
+        .isEqualTo(AnsiAttribute.BOLD);
+    assertThat(parseStyle("\u001B[1;32m\u001B[38;2;0;205;0m").getAttribute())
+        .isEqualTo(AnsiAttribute.BOLD);
+  }
+
+  @Test
+  public void sgr_malformedExtendedColor_isIgnored() {
+    assertThat(parseStyle("\u001B[1;33m\u001B[38;5;999m\u001B[48;2;1m"))
+        .isSameInstanceAs(AnsiStyle.of(AnsiColor.YELLOW, AnsiColor.BLACK, AnsiAttribute.BOLD));
+  }
+
+  @Test
+  public void sgr_overlongParameter_isIgnored() {
+    String yellow = "\u001B[33m";
+
+    assertThat(parseStyle(yellow + "\u001B[4294967295m"))
+        .isSameInstanceAs(AnsiStyle.of(AnsiColor.YELLOW, AnsiColor.BLACK, AnsiAttribute.NONE));
+    // wraps around to 1, BOLD, without the clamp
+    assertThat(parseStyle(yellow + "\u001B[4294967297m"))
+        .isSameInstanceAs(AnsiStyle.of(AnsiColor.YELLOW, AnsiColor.BLACK, AnsiAttribute.NONE));
+    assertThat(parseStyle(yellow + "\u001B[38;5;4294967297;48;2;4294967296;0;0m"))
+        .isSameInstanceAs(AnsiStyle.of(AnsiColor.YELLOW, AnsiColor.BLACK, AnsiAttribute.NONE));
+  }
+
+  @Test
+  public void sgr_reset() {
+    String bold = createBoldColor(AnsiColor.RED, AnsiColor.BLUE);
+
+    assertThat(parseStyle(bold + "\u001B[0m")).isSameInstanceAs(AnsiStyle.getDefault());
+    assertThat(parseStyle(bold + "\u001B[m")).isSameInstanceAs(AnsiStyle.getDefault());
+    assertThat(parseStyle(bold + "\u001B[33;0m")).isSameInstanceAs(AnsiStyle.getDefault());
+    assertThat(parseStyle(bold + "\u001B[39;49;22m")).isSameInstanceAs(AnsiStyle.getDefault());
+  }
+
+  @Test
+  public void sgr_unknownCodes_areIgnored() {
+    assertThat(parseStyle("\u001B[1;32m\u001B[10;26;53;60;99;108m"))
+        .isSameInstanceAs(AnsiStyle.of(AnsiColor.GREEN, AnsiColor.BLACK, AnsiAttribute.BOLD));
+  }
+
+  @Test
+  public void parameterlessSequences_doNotSwallowText() {
+    ParsedAnsiText parsedAnsi = ansiColorParser.parseAnsi("\u001B[KHello\u001B[mworld");
+
+    assertThat(parsedAnsi.getText()).isEqualTo("Helloworld");
+  }
+
+  @Test
+  public void ansiColor_fromRgb() {
+    assertThat(AnsiColor.fromRgb(255, 165, 0)).isEqualTo(AnsiColor.YELLOW);
+    assertThat(AnsiColor.fromRgb(128, 0, 128)).isEqualTo(AnsiColor.MAGENTA);
+    assertThat(AnsiColor.fromRgb(20, 20, 20)).isEqualTo(AnsiColor.BLACK);
+    assertThrows(IllegalArgumentException.class, () -> AnsiColor.fromRgb(256, 0, 0));
+  }
+
+  @Test
+  public void ansiColor_fromPaletteIndex() {
+    assertThat(AnsiColor.fromPaletteIndex(4)).isEqualTo(AnsiColor.BLUE);
+    assertThat(AnsiColor.fromPaletteIndex(12)).isEqualTo(AnsiColor.BLUE);
+    assertThat(AnsiColor.fromPaletteIndex(46)).isEqualTo(AnsiColor.GREEN);
+    assertThrows(
+        IndexOutOfBoundsException.class,
+        () -> AnsiColor.fromPaletteIndex(AnsiColor.PALETTE_SIZE));
+  }
 }
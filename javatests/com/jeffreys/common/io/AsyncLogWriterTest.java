@@ -0,0 +1,126 @@
+package com.jeffreys.common.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jeffreys.junit.Exceptions.assertThrows;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AsyncLogWriterTest {
+
+  private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+  private String getOutput() {
+    synchronized (output) {
+      return new String(output.toByteArray(), ISO_8859_1);
+    }
+  }
+
+  @Test
+  public void flush_writesEverything() throws Exception {
+    AsyncLogWriter writer = AsyncLogWriter.builder(output, ISO_8859_1).build();
+    PrintWriter printWriter = new PrintWriter(writer);
+
+    printWriter.println("You're in the arena.");
+    printWriter.print("° Obvious exits: north.");
+    printWriter.flush();
+
+    assertThat(getOutput())
+        .isEqualTo("You're in the arena." + System.lineSeparator() + "° Obvious exits: north.");
+    assertThat(writer.getMetrics().getCommits()).isEqualTo(1);
+  }
+
+  @Test
+  public void close_writesTail() throws Exception {
+    AsyncLogWriter writer = AsyncLogWriter.builder(output, ISO_8859_1).build();
+
+    for (int i = 0; i < 1000; ++i) {
+      writer.write("line " + i + "\n");
+    }
+    writer.close();
+
+    assertThat(getOutput()).startsWith("line 0\nline 1\n");
+    assertThat(getOutput()).endsWith("line 999\n");
+    assertThat(writer.getMetrics().getWrites()).isEqualTo(1000);
+  }
+
+  @Test
+  public void flushInterval_writesWithoutFlush() throws Exception {
+    AsyncLogWriter writer =
+        AsyncLogWriter.builder(output, ISO_8859_1).setFlushInterval(Duration.ofMillis(10)).build();
+
+    writer.write("You're in the arena.");
+
+    for (int i = 0; i < 500 && getOutput().isEmpty(); ++i) {
+      Uninterruptibles.sleepUninterruptibly(Duration.ofMillis(10));
+    }
+    assertThat(getOutput()).isEqualTo("You're in the arena.");
+    writer.close();
+  }
+
+  @Test
+  public void fullQueue_countsBlockedWrites() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    OutputStream slowOutput =
+        new OutputStream() {
+          @Override
+          public void write(int b) {
+            Uninterruptibles.awaitUninterruptibly(release);
+            output.write(b);
+          }
+
+          @Override
+          public void write(byte[] b, int off, int len) {
+            Uninterruptibles.awaitUninterruptibly(release);
+            output.write(b, off, len);
+          }
+        };
+    AsyncLogWriter writer =
+        AsyncLogWriter.builder(slowOutput, ISO_8859_1)
+            .setQueueCapacity(1)
+            .setBufferSize(1)
+            // the encoder buffers too, so text only reaches the output when it is flushed
+            .setFlushInterval(Duration.ofNanos(1))
+            .build();
+
+    Thread releaser =
+        new Thread(
+            () -> {
+              // only release the output once a write is stuck behind it, however slowly the
+              // writing thread gets going
+              while (writer.getMetrics().getBlockedWrites() == 0) {
+                Uninterruptibles.sleepUninterruptibly(Duration.ofMillis(1));
+              }
+              Uninterruptibles.sleepUninterruptibly(Duration.ofMillis(100));
+              release.countDown();
+            });
+    releaser.start();
+    for (int i = 0; i < 10; ++i) {
+      writer.write("abc");
+    }
+    writer.close();
+    releaser.join();
+
+    assertThat(getOutput()).isEqualTo("abcabcabcabcabcabcabcabcabcabc");
+    assertThat(writer.getMetrics().getBlockedWrites()).isGreaterThan(0L);
+    assertThat(writer.getMetrics().getBlockedTime()).isGreaterThan(Duration.ZERO);
+  }
+
+  @Test
+  public void write_afterClose_throwsError() throws Exception {
+    AsyncLogWriter writer = AsyncLogWriter.builder(output, ISO_8859_1).build();
+    writer.close();
+
+    assertThrows(IOException.class, () -> writer.write("too late"));
+  }
+}
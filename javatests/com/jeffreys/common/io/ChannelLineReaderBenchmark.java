@@ -0,0 +1,86 @@
+package com.jeffreys.common.io;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Compares reading BBS output with {@link ChannelLineReader} against {@link Scanner#nextLine}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChannelLineReaderBenchmark {
+  private static final String[] SCREEN = {
+    "\u001b[1;32mYou're in the arena.\u001b[0m",
+    "\u001b[1;33mYou notice 42 gold crowns and a silver dagger here.",
+    "\u001b[1;35mAlso here: Bob, Alice, 2 cave bears and a grey robed priest.",
+    "\u001b[1;36mObvious exits: north, south, east.",
+    "\u001b[1;31mThe cave bear attacked you with its claws!",
+    "\u001b[0;37m[HP=120/MA=40]:",
+  };
+  private static final int SCREEN_COUNT = 1000;
+
+  private byte[] input;
+
+  @Setup
+  public void createInput() {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < SCREEN_COUNT; ++i) {
+      for (String line : SCREEN) {
+        builder.append(line).append("\r\n");
+      }
+    }
+    input = builder.toString().getBytes(ISO_8859_1);
+  }
+
+  @Benchmark
+  public void scannerNextLine(Blackhole blackhole) {
+    Scanner scanner = new Scanner(new ByteArrayInputStream(input), ISO_8859_1.name());
+    while (scanner.hasNextLine()) {
+      blackhole.consume(scanner.nextLine());
+    }
+  }
+
+  @Benchmark
+  public void channelNextLine(Blackhole blackhole) {
+    ChannelLineReader reader = createReader();
+    try {
+      while (true) {
+        blackhole.consume(reader.nextLine());
+      }
+    } catch (NoSuchElementException expected) {
+      // end of input
+    }
+  }
+
+  @Benchmark
+  public void channelReadLine(Blackhole blackhole) throws Exception {
+    ChannelLineReader reader = createReader();
+    CharSequence line;
+    while ((line = reader.readLine()) != null) {
+      blackhole.consume(line.length());
+    }
+  }
+
+  private ChannelLineReader createReader() {
+    return ChannelLineReader.create(
+        Channels.newChannel(new ByteArrayInputStream(input)), ISO_8859_1);
+  }
+}
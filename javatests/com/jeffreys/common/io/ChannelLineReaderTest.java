@@ -0,0 +1,118 @@
+package com.jeffreys.common.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jeffreys.junit.Exceptions.assertThrows;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ChannelLineReaderTest {
+
+  private static ChannelLineReader createReader(byte[] input, Charset charset, int bufferSize) {
+    return ChannelLineReader.create(
+        Channels.newChannel(new ByteArrayInputStream(input)), charset, bufferSize);
+  }
+
+  private static List<String> readAllLines(ChannelLineReader reader) throws Exception {
+    List<String> lines = new ArrayList<>();
+    CharSequence line;
+    while ((line = reader.readLine()) != null) {
+      lines.add(line.toString());
+    }
+    return lines;
+  }
+
+  @Test
+  public void readLine_splitsOnAllTerminators() throws Exception {
+    byte[] input = "one\r\ntwo\nthree\rfour\r\n\r\nsix".getBytes(ISO_8859_1);
+
+    // every buffer size, so terminators are split across reads
+    for (int bufferSize = 1; bufferSize <= input.length + 1; ++bufferSize) {
+      assertThat(readAllLines(createReader(input, ISO_8859_1, bufferSize)))
+          .containsExactly("one", "two", "three", "four", "", "six")
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void readLine_trailingTerminator_noEmptyLine() throws Exception {
+    ChannelLineReader reader = createReader("one\r\n".getBytes(ISO_8859_1), ISO_8859_1, 8);
+
+    assertThat(readAllLines(reader)).containsExactly("one");
+    assertThat(reader.readLine()).isNull();
+  }
+
+  @Test
+  public void readLine_growsForLongLines() throws Exception {
+    String longLine = Strings.repeat("The orc attacked you with a club! ", 100);
+    ChannelLineReader reader =
+        createReader((longLine + "\r\nshort").getBytes(ISO_8859_1), ISO_8859_1, 64);
+
+    CharSequence line = reader.readLine();
+    assertThat(line.length()).isEqualTo(longLine.length());
+    assertThat(line.charAt(4)).isEqualTo('o');
+    assertThat(line.subSequence(4, 7).toString()).isEqualTo("orc");
+    assertThat(line.toString()).isEqualTo(longLine);
+    assertThat(reader.readLine().toString()).isEqualTo("short");
+  }
+
+  @Test
+  public void readLine_decodesCodePage437() throws Exception {
+    Charset cp437 = Charset.forName("IBM437");
+    byte[] input = {(byte) 0xB0, (byte) 0xDB, 'h', 'i', (byte) 0x82, '\n'};
+
+    assertThat(readAllLines(createReader(input, cp437, 8)))
+        .containsExactly(new String(input, 0, input.length - 1, cp437));
+  }
+
+  @Test
+  public void nextLine_endOfInput_throwsError() {
+    ChannelLineReader reader = createReader("one\n".getBytes(ISO_8859_1), ISO_8859_1, 8);
+
+    assertThat(reader.nextLine()).isEqualTo("one");
+    assertThrows(NoSuchElementException.class, reader::nextLine);
+  }
+
+  @Test
+  public void nextLine_rawLineHandler_getsUndecodedBytes() {
+    Charset cp437 = Charset.forName("IBM437");
+    byte[] input = {(byte) 0xB0, 'h', 'i', '\r', '\n', 'b', 'y', 'e'};
+    ChannelLineReader reader = createReader(input, cp437, 4);
+
+    byte[] first = reader.nextLine((bytes, length) -> Arrays.copyOf(bytes, length));
+    String second = reader.nextLine((bytes, length) -> new String(bytes, 0, length, cp437));
+
+    assertThat(first).isEqualTo(new byte[] {(byte) 0xB0, 'h', 'i'});
+    assertThat(second).isEqualTo("bye");
+    assertThrows(NoSuchElementException.class, () -> reader.nextLine((bytes, length) -> length));
+  }
+
+  @Test
+  public void createDecodeTable_decodesEveryByte() {
+    Charset cp437 = Charset.forName("IBM437");
+    char[] decodeTable = ChannelLineReader.createDecodeTable(cp437);
+
+    assertThat(decodeTable.length).isEqualTo(256);
+    assertThat(decodeTable['A']).isEqualTo('A');
+    assertThat(decodeTable[0xB0]).isEqualTo('\u2591');
+  }
+
+  @Test
+  public void create_multiByteCharset_throwsError() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> createReader(new byte[0], UTF_8, /* bufferSize= */ 8));
+  }
+}
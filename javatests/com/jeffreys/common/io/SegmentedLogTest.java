@@ -0,0 +1,192 @@
+package com.jeffreys.common.io;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jeffreys.junit.Exceptions.assertThrows;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.io.CharStreams;
+import com.jeffreys.common.io.SegmentedLog.Direction;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SegmentedLogTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(1234), ZoneOffset.UTC);
+
+  private Path getBasePath() {
+    return folder.getRoot().toPath().resolve("session.log");
+  }
+
+  private static void append(SegmentedLog log, long timestamp, Direction direction, String text)
+      throws Exception {
+    byte[] bytes = text.getBytes(ISO_8859_1);
+    log.append(timestamp, direction, bytes, 0, bytes.length);
+  }
+
+  private List<String> readRecords() throws Exception {
+    List<String> records = new ArrayList<>();
+    SegmentedLogReader.read(
+        getBasePath(),
+        (timestamp, direction, payload) ->
+            records.add(timestamp + " " + direction + " " + ISO_8859_1.decode(payload)));
+    return records;
+  }
+
+  @Test
+  public void append_readsBackRecords() throws Exception {
+    try (SegmentedLog log = SegmentedLog.builder(getBasePath()).build()) {
+      append(log, 1, Direction.INBOUND, "You're in the arena.");
+      append(log, 2, Direction.OUTBOUND, "a orc");
+      append(log, 3, Direction.INBOUND, "");
+    }
+
+    assertThat(readRecords())
+        .containsExactly("1 INBOUND You're in the arena.", "2 OUTBOUND a orc", "3 INBOUND ")
+        .inOrder();
+  }
+
+  @Test
+  public void append_rollsAndKeepsNewestSegments() throws Exception {
+    try (SegmentedLog log =
+        SegmentedLog.builder(getBasePath())
+            .setSegmentSize(SegmentedLog.SEGMENT_HEADER_BYTES + SegmentedLog.HEADER_BYTES * 2 + 4)
+            .setMaxSegments(2)
+            .build()) {
+      for (int i = 0; i < 10; ++i) {
+        append(log, i, Direction.INBOUND, "l" + i);
+      }
+    }
+
+    // two records per segment, and only the last two segments are kept
+    assertThat(SegmentedLog.listSegments(getBasePath())).hasSize(2);
+    assertThat(readRecords())
+        .containsExactly("6 INBOUND l6", "7 INBOUND l7", "8 INBOUND l8", "9 INBOUND l9")
+        .inOrder();
+  }
+
+  @Test
+  public void append_compressesClosedSegments() throws Exception {
+    try (SegmentedLog log =
+        SegmentedLog.builder(getBasePath())
+            .setSegmentSize(SegmentedLog.SEGMENT_HEADER_BYTES + SegmentedLog.HEADER_BYTES + 8)
+            .setCompressClosedSegments(true)
+            .build()) {
+      append(log, 1, Direction.INBOUND, "first");
+      append(log, 2, Direction.INBOUND, "second");
+    }
+
+    assertThat(SegmentedLog.listSegments(getBasePath()).get(0).path.toString())
+        .endsWith("session.log.000001.seg.gz");
+    assertThat(readRecords()).containsExactly("1 INBOUND first", "2 INBOUND second").inOrder();
+  }
+
+  @Test
+  public void close_recordsBytesWrittenInSegmentHeader() throws Exception {
+    try (SegmentedLog log = SegmentedLog.builder(getBasePath()).build()) {
+      append(log, 1, Direction.INBOUND, "first");
+      append(log, 2, Direction.OUTBOUND, "a orc");
+    }
+
+    Path segment = SegmentedLog.listSegments(getBasePath()).get(0).path;
+    assertThat(ByteBuffer.wrap(Files.readAllBytes(segment)).getInt())
+        .isEqualTo(SegmentedLog.SEGMENT_HEADER_BYTES + 2 * SegmentedLog.HEADER_BYTES + 10);
+    assertThat(readRecords()).containsExactly("1 INBOUND first", "2 OUTBOUND a orc").inOrder();
+  }
+
+  @Test
+  public void append_retentionCountsBytesWritten() throws Exception {
+    try (SegmentedLog log =
+        SegmentedLog.builder(getBasePath())
+            .setSegmentSize(1024)
+            .setMaxTotalBytes(1024)
+            .build()) {
+      append(log, 1, Direction.INBOUND, "first session");
+    }
+    try (SegmentedLog log =
+        SegmentedLog.builder(getBasePath())
+            .setSegmentSize(1024)
+            .setMaxTotalBytes(1024)
+            .build()) {
+      append(log, 2, Direction.INBOUND, "second session");
+    }
+
+    // both segments are far smaller than their mapping, so neither is deleted
+    assertThat(readRecords())
+        .containsExactly("1 INBOUND first session", "2 INBOUND second session")
+        .inOrder();
+  }
+
+  @Test
+  public void build_continuesAfterEarlierSessions() throws Exception {
+    try (SegmentedLog log = SegmentedLog.builder(getBasePath()).build()) {
+      append(log, 1, Direction.INBOUND, "first session");
+    }
+    try (SegmentedLog log = SegmentedLog.builder(getBasePath()).build()) {
+      append(log, 2, Direction.INBOUND, "second session");
+    }
+
+    assertThat(readRecords())
+        .containsExactly("1 INBOUND first session", "2 INBOUND second session")
+        .inOrder();
+  }
+
+  @Test
+  public void append_recordTooLarge_throwsError() throws Exception {
+    try (SegmentedLog log =
+        SegmentedLog.builder(getBasePath())
+            .setSegmentSize(SegmentedLog.SEGMENT_HEADER_BYTES + SegmentedLog.HEADER_BYTES + 1)
+            .build()) {
+      assertThrows(
+          IllegalArgumentException.class, () -> append(log, 1, Direction.INBOUND, "too long"));
+    }
+  }
+
+  @Test
+  public void journalListener_exportsInboundAsText() throws Exception {
+    SessionJournal journal = new SessionJournal(/* capacity= */ 4, CLOCK);
+    try (SegmentedLogListener listener =
+        new SegmentedLogListener(SegmentedLog.builder(getBasePath()).build(), ISO_8859_1)) {
+      journal.addListener(listener);
+      PrintWriter outbound =
+          new PrintWriter(
+              new JournalWriter(journal, Direction.OUTBOUND, CharStreams.nullWriter()));
+
+      journal.record(Direction.INBOUND, "\u001B[1;32mYou're in the arena.");
+      outbound.print("a orc\r\n");
+      outbound.flush();
+      journal.record(Direction.INBOUND, "Obvious exits: north.");
+      listener.flush();
+    }
+    // the log is closed along with the listener, so later entries are dropped
+    journal.record(Direction.INBOUND, "[HP=120]:");
+
+    StringWriter text = new StringWriter();
+    SegmentedLogReader.exportInboundText(getBasePath(), ISO_8859_1, text);
+
+    String separator = System.lineSeparator();
+    assertThat(text.toString())
+        .isEqualTo(
+            "\u001B[1;32mYou're in the arena." + separator + "Obvious exits: north." + separator);
+    assertThat(readRecords())
+        .containsExactly(
+            "1234 INBOUND \u001B[1;32mYou're in the arena.",
+            "1234 OUTBOUND a orc",
+            "1234 INBOUND Obvious exits: north.")
+        .inOrder();
+  }
+}
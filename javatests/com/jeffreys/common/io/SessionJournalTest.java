@@ -0,0 +1,101 @@
+package com.jeffreys.common.io;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import com.jeffreys.common.io.SegmentedLog.Direction;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SessionJournalTest {
+
+  private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(1234), ZoneOffset.UTC);
+
+  private final SessionJournal journal = new SessionJournal(/* capacity= */ 3, CLOCK);
+
+  private List<String> getRecent() {
+    List<String> recent = new ArrayList<>();
+    journal.forEachRecent(entry -> recent.add(entry.getDirection() + " " + entry));
+    return recent;
+  }
+
+  @Test
+  public void journalWriter_recordsLinesAndPassesThrough() throws Exception {
+    StringWriter output = new StringWriter();
+    PrintWriter writer =
+        new PrintWriter(new JournalWriter(journal, Direction.OUTBOUND, output), true);
+
+    writer.print("a orc\r\na orc\r\n");
+    writer.print("c ");
+    writer.print("motu orc\r\n");
+    writer.print("partial");
+    writer.flush();
+
+    assertThat(output.toString()).isEqualTo("a orc\r\na orc\r\nc motu orc\r\npartial");
+    assertThat(getRecent())
+        .containsExactly("OUTBOUND a orc", "OUTBOUND a orc", "OUTBOUND c motu orc")
+        .inOrder();
+  }
+
+  @Test
+  public void journalWriter_recordsLinesOnlyOnceFlushed() throws Exception {
+    PrintWriter writer =
+        new PrintWriter(new JournalWriter(journal, Direction.OUTBOUND, new StringWriter()));
+
+    writer.print("a orc\r\n");
+    journal.record(Direction.INBOUND, "The orc attacked you!");
+    writer.print("he\r\n");
+
+    assertThat(getRecent()).containsExactly("INBOUND The orc attacked you!");
+
+    writer.flush();
+
+    assertThat(getRecent())
+        .containsExactly("INBOUND The orc attacked you!", "OUTBOUND a orc", "OUTBOUND he")
+        .inOrder();
+  }
+
+  @Test
+  public void record_keepsMostRecentEntries() throws Exception {
+    for (int i = 0; i < 5; ++i) {
+      char[] text = ("line " + i).toCharArray();
+      journal.record(Direction.INBOUND, text, 0, text.length);
+    }
+
+    assertThat(journal.getCount()).isEqualTo(5);
+    assertThat(getRecent())
+        .containsExactly("INBOUND line 2", "INBOUND line 3", "INBOUND line 4")
+        .inOrder();
+  }
+
+  @Test
+  public void record_notifiesListeners() throws Exception {
+    List<String> seen = new ArrayList<>();
+    journal.addListener(
+        entry -> seen.add(entry.getTimestampMillis() + " " + entry.subSequence(0, 4)));
+    char[] text = "You're in the arena.".toCharArray();
+
+    journal.record(Direction.INBOUND, text, 0, text.length);
+
+    assertThat(seen).containsExactly("1234 You'");
+  }
+
+  @Test
+  public void record_string_growsEntries() throws Exception {
+    String longLine = Strings.repeat("You're in the arena. ", 20);
+
+    journal.record(Direction.INBOUND, "short");
+    journal.record(Direction.INBOUND, longLine);
+
+    assertThat(getRecent()).containsExactly("INBOUND short", "INBOUND " + longLine).inOrder();
+  }
+}
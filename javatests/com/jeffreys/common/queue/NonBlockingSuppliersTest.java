@@ -7,9 +7,13 @@ import static com.jeffreys.junit.Exceptions.assertThrows;
 import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.Uninterruptibles;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -77,4 +81,220 @@ public class NonBlockingSuppliersTest {
       assertThat(expected).hasCauseThat().hasMessageThat().contains("haha");
     }
   }
+
+  @Test
+  public void singleConsumer_noCapacity_throwsError() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+                /* capacity= */ 0, executorService, () -> "test", WaitStrategy.getDefault()));
+  }
+
+  @Test
+  public void singleConsumer_simpleGet() throws Exception {
+    NonBlockingSupplier<String> supplier =
+        NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+            /* capacity= */ 1, executorService, () -> "test", WaitStrategy.getDefault());
+
+    assertThat(supplier.get(Duration.ofSeconds(5))).isEqualTo("test");
+    assertThat(supplier.get(Duration.ofSeconds(5))).isEqualTo("test");
+  }
+
+  @Test
+  public void singleConsumer_timesout() throws Exception {
+    NonBlockingSupplier<String> supplier =
+        NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+            /* capacity= */ 1,
+            executorService,
+            () -> {
+              Uninterruptibles.sleepUninterruptibly(Duration.ofSeconds(2));
+              return "test";
+            },
+            WaitStrategy.park());
+
+    assertThat(supplier.get(Duration.ofSeconds(1))).isEqualTo(null);
+    assertThat(supplier.get(Duration.ofSeconds(4))).isEqualTo("test");
+  }
+
+  @Test
+  public void singleConsumer_preservesOrderAcrossWraparound() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    NonBlockingSupplier<Integer> supplier =
+        NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+            /* capacity= */ 3,
+            executorService,
+            counter::getAndIncrement,
+            WaitStrategy.create(/* spinIterations= */ 10, /* yieldIterations= */ 1));
+
+    for (int i = 0; i < 10_000; ++i) {
+      assertThat(supplier.get(Duration.ofSeconds(5))).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void singleConsumer_propagatesExceptionsInOrder() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    NonBlockingSupplier<Integer> supplier =
+        NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+            /* capacity= */ 2,
+            executorService,
+            () -> {
+              int value = counter.getAndIncrement();
+              if (value % 3 == 1) {
+                throw new IllegalArgumentException("haha" + value);
+              }
+              return value;
+            },
+            WaitStrategy.getDefault());
+
+    for (int i = 0; i < 30; ++i) {
+      if (i % 3 == 1) {
+        try {
+          supplier.get(Duration.ofSeconds(5));
+          assertWithMessage("Should have thrown").fail();
+        } catch (ExecutionException expected) {
+          assertThat(expected).hasCauseThat().isInstanceOf(IllegalArgumentException.class);
+          assertThat(expected).hasCauseThat().hasMessageThat().isEqualTo("haha" + i);
+        }
+      } else {
+        assertThat(supplier.get(Duration.ofSeconds(5))).isEqualTo(i);
+      }
+    }
+  }
+
+  @Test
+  public void singleConsumer_capacityOne_neverLosesWakeups() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    // parking right away on both sides, with every other value an exception like the reader
+    // hitting EOF, makes the producer wait on both the ring and the error slot all the time
+    NonBlockingSupplier<Integer> supplier =
+        NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+            /* capacity= */ 1,
+            executorService,
+            () -> {
+              int value = counter.getAndIncrement();
+              if (value % 2 == 1) {
+                throw new IllegalStateException("EOF");
+              }
+              return value;
+            },
+            WaitStrategy.park());
+
+    int exceptions = 0;
+    // keep the loop tight, a slower consumer hides lost wakeups
+    for (int i = 0; i < 100_000; ++i) {
+      try {
+        Integer value = supplier.get(Duration.ofSeconds(5));
+        if (value == null || value != i) {
+          assertWithMessage("Expected %s but got %s", i, value).fail();
+        }
+      } catch (ExecutionException expected) {
+        ++exceptions;
+      }
+    }
+    assertThat(exceptions).isEqualTo(50_000);
+  }
+
+  @Test
+  public void waitStrategy_negativeIterations_throwsError() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> WaitStrategy.create(/* spinIterations= */ -1, /* yieldIterations= */ 0));
+  }
+
+  @Test
+  public void drainTo_returnsQueuedValues() throws Exception {
+    assertDrainsInOrder(
+        NonBlockingSuppliers.createNonBlockingSupplier(
+            /* capacity= */ 16, executorService, sequenceWithFailureAt(5)));
+  }
+
+  @Test
+  public void singleConsumer_drainTo_returnsQueuedValues() throws Exception {
+    assertDrainsInOrder(
+        NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+            /* capacity= */ 16,
+            executorService,
+            sequenceWithFailureAt(5),
+            WaitStrategy.getDefault()));
+  }
+
+  @Test
+  public void drainTo_defaultImplementation_returnsOneValue() throws Exception {
+    NonBlockingSupplier<String> supplier = timeout -> "test";
+    List<String> destination = new ArrayList<>();
+
+    assertThat(supplier.drainTo(destination, /* maxElements= */ 10, Duration.ofSeconds(1)))
+        .isEqualTo(1);
+    assertThat(destination).containsExactly("test");
+  }
+
+  @Test
+  public void drainTo_timesout() throws Exception {
+    NonBlockingSupplier<String> supplier =
+        NonBlockingSuppliers.createSingleConsumerNonBlockingSupplier(
+            /* capacity= */ 4,
+            executorService,
+            () -> {
+              Uninterruptibles.sleepUninterruptibly(Duration.ofSeconds(2));
+              return "test";
+            },
+            WaitStrategy.park());
+    List<String> destination = new ArrayList<>();
+
+    assertThat(supplier.drainTo(destination, /* maxElements= */ 4, Duration.ofMillis(100)))
+        .isEqualTo(0);
+    assertThat(destination).isEmpty();
+  }
+
+  @Test
+  public void drainTo_noElements_throwsError() {
+    NonBlockingSupplier<String> supplier =
+        NonBlockingSuppliers.createNonBlockingSupplier(
+            /* capacity= */ 1, executorService, () -> "test");
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> supplier.drainTo(new ArrayList<>(), /* maxElements= */ 0, Duration.ofSeconds(1)));
+  }
+
+  /** Supplies 0 through 9, except for throwing instead of {@code failure}, then blocks. */
+  private static Supplier<Integer> sequenceWithFailureAt(int failure) {
+    AtomicInteger counter = new AtomicInteger();
+    return () -> {
+      int value = counter.getAndIncrement();
+      if (value == failure) {
+        throw new IllegalArgumentException("haha");
+      }
+      if (value >= 10) {
+        Uninterruptibles.sleepUninterruptibly(Duration.ofDays(1));
+      }
+      return value;
+    };
+  }
+
+  private static void assertDrainsInOrder(NonBlockingSupplier<Integer> supplier)
+      throws Exception {
+    // give the producer time to queue everything, so the values come back in batches
+    Thread.sleep(200);
+    List<Integer> values = new ArrayList<>();
+    boolean threw = false;
+    while (values.size() < 9) {
+      int size = values.size();
+      try {
+        int count = supplier.drainTo(values, /* maxElements= */ 3, Duration.ofSeconds(5));
+        assertThat(count).isAtLeast(1);
+        assertThat(count).isAtMost(3);
+        assertThat(values).hasSize(size + count);
+      } catch (ExecutionException expected) {
+        assertThat(expected).hasCauseThat().hasMessageThat().isEqualTo("haha");
+        assertThat(values).containsExactly(0, 1, 2, 3, 4).inOrder();
+        threw = true;
+      }
+    }
+
+    assertThat(threw).isTrue();
+    assertThat(values).containsExactly(0, 1, 2, 3, 4, 6, 7, 8, 9).inOrder();
+  }
 }
@@ -0,0 +1,63 @@
+package com.jeffreys.common.text;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.jeffreys.junit.Exceptions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class AhoCorasickTest {
+
+  private static List<String> search(AhoCorasick ahoCorasick, String text) {
+    List<String> matches = new ArrayList<>();
+    ahoCorasick.search(
+        text,
+        (patternIndex, start) ->
+            matches.add(ahoCorasick.getPatterns().get(patternIndex) + "@" + start));
+    return matches;
+  }
+
+  @Test
+  public void search_noMatches() {
+    AhoCorasick ahoCorasick = AhoCorasick.create("he", "she");
+
+    assertThat(search(ahoCorasick, "nothing to see")).isEmpty();
+    assertThat(search(ahoCorasick, "")).isEmpty();
+  }
+
+  @Test
+  public void search_reportsOverlappingMatchesInEndOrder() {
+    AhoCorasick ahoCorasick = AhoCorasick.create("he", "she", "his", "hers");
+
+    assertThat(search(ahoCorasick, "ushers")).containsExactly("she@1", "he@2", "hers@2").inOrder();
+  }
+
+  @Test
+  public void search_reportsEveryOccurrence() {
+    AhoCorasick ahoCorasick = AhoCorasick.create("aa", " discharged ", " just discharged ");
+
+    assertThat(search(ahoCorasick, "aaa")).containsExactly("aa@0", "aa@1").inOrder();
+    assertThat(search(ahoCorasick, "Bob just discharged a spell"))
+        .containsExactly(" just discharged @3", " discharged @8")
+        .inOrder();
+  }
+
+  @Test
+  public void search_nonAsciiCharacters() {
+    AhoCorasick ahoCorasick = AhoCorasick.create("café", "──");
+
+    assertThat(search(ahoCorasick, "un café ───"))
+        .containsExactly("café@3", "──@8", "──@9")
+        .inOrder();
+  }
+
+  @Test
+  public void create_rejectsInvalidPatterns() {
+    assertThrows(IllegalArgumentException.class, () -> AhoCorasick.create("a", ""));
+    assertThrows(IllegalArgumentException.class, () -> AhoCorasick.create("a", "b", "a"));
+  }
+}
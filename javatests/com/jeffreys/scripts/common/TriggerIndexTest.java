@@ -0,0 +1,65 @@
+package com.jeffreys.scripts.common;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TriggerIndexTest {
+
+  @Test
+  public void extractRequiredLiteral_picksLongestLiteral() {
+    assertThat(TriggerIndex.extractRequiredLiteral(".*Your Experience is (\\d+)\\..*"))
+        .hasValue("Your Experience is ");
+    assertThat(TriggerIndex.extractRequiredLiteral("haha")).hasValue("haha");
+    assertThat(TriggerIndex.extractRequiredLiteral("^You have (\\d+) gold\\.$"))
+        .hasValue("You have ");
+  }
+
+  @Test
+  public void extractRequiredLiteral_dropsOptionalCharacters() {
+    assertThat(TriggerIndex.extractRequiredLiteral("colou?r")).hasValue("colo");
+    assertThat(TriggerIndex.extractRequiredLiteral("ab*cdef")).hasValue("cdef");
+    assertThat(TriggerIndex.extractRequiredLiteral("abc{0,2}de")).hasValue("ab");
+    assertThat(TriggerIndex.extractRequiredLiteral("[xyz]+ hits[.!]")).hasValue(" hits");
+  }
+
+  @Test
+  public void extractRequiredLiteral_skipsGroups() {
+    assertThat(TriggerIndex.extractRequiredLiteral(".*(arrived|left) through door.*"))
+        .hasValue(" through door");
+    assertThat(TriggerIndex.extractRequiredLiteral("(?:The|A) (?<monster>\\w+) attacks"))
+        .hasValue(" attacks");
+    assertThat(TriggerIndex.extractRequiredLiteral("(?!Bob)\\w+ waves")).hasValue(" waves");
+  }
+
+  @Test
+  public void extractRequiredLiteral_givesUpWhenUnsure() {
+    assertThat(TriggerIndex.extractRequiredLiteral("orc|goblin")).isEmpty();
+    assertThat(TriggerIndex.extractRequiredLiteral("(?i)orc")).isEmpty();
+    assertThat(TriggerIndex.extractRequiredLiteral("\\Qorc\\E")).isEmpty();
+    assertThat(TriggerIndex.extractRequiredLiteral("\\x41orc")).isEmpty();
+    assertThat(TriggerIndex.extractRequiredLiteral("(orc)")).isEmpty();
+    assertThat(TriggerIndex.extractRequiredLiteral("(?i:orc) here")).isEmpty();
+    assertThat(TriggerIndex.extractRequiredLiteral(".*")).isEmpty();
+    assertThat(TriggerIndex.extractRequiredLiteral("")).isEmpty();
+  }
+
+  @Test
+  public void findCandidates_onlyHasCandidatesOfEachLine() {
+    TriggerIndex index =
+        new TriggerIndex(
+            ImmutableList.of(
+                Trigger.newBuilder().setTriggerRegex(".*orc.*").build(),
+                Trigger.newBuilder().setTriggerRegex(".*").build(),
+                Trigger.newBuilder().setTriggerRegex(".*goblin.*").build()));
+
+    assertThat(index.findCandidates("An orc arrives.").toString()).isEqualTo("{0, 1}");
+    assertThat(index.findCandidates("A goblin arrives.").toString()).isEqualTo("{1, 2}");
+    assertThat(index.findCandidates("Nobody's here.").toString()).isEqualTo("{1}");
+  }
+}
@@ -0,0 +1,149 @@
+package com.jeffreys.scripts.common;
+
+import com.google.common.collect.ImmutableList;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiAttribute;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiColor;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiStyle;
+import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiText;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures how {@link Triggers#processLine} scales with the number of triggers, compared to
+ * running every trigger's regex against every line.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TriggersBenchmark {
+  private static final Color[] COLORS = {
+    Color.ANY, Color.RED, Color.GREEN, Color.YELLOW, Color.CYAN, Color.ANY, Color.WHITE
+  };
+
+  private static final ImmutableList<ParsedAnsiText> LINES =
+      ImmutableList.of(
+          line("The cave bear attacked you with its claws!", AnsiColor.RED),
+          line("There is a grey robed priest here.", AnsiColor.GREEN),
+          line("You notice 42 gold crowns and a silver dagger here.", AnsiColor.YELLOW),
+          line("Also here: Bob, Alice and Eve.", AnsiColor.MAGENTA),
+          line("Obvious exits: north, south, east.", AnsiColor.CYAN),
+          line("Your Experience is 12828.", AnsiColor.WHITE),
+          line("Bob just arrived from the west.", AnsiColor.WHITE),
+          line("A goblin attacked you with monster17's club!", AnsiColor.RED));
+
+  @Param({"10", "100", "1000", "10000"})
+  public int triggerCount;
+
+  private Triggers triggers;
+  private Triggers parallelTriggers;
+  private ImmutableList<Trigger> triggerProtos;
+  private ImmutableList<Pattern> patterns;
+
+  private final BiConsumer<Integer, String> noopCommand = (id, command) -> {};
+
+  private static ParsedAnsiText line(String text, AnsiColor color) {
+    return ParsedAnsiText.create(text, AnsiStyle.of(color, AnsiColor.BLACK, AnsiAttribute.BOLD));
+  }
+
+  /** Creates a mix of the shapes of triggers seen in real configurations. */
+  private static Trigger createTrigger(int id) {
+    String regex;
+    switch (id % 5) {
+      case 0:
+        regex = ".*monster" + id + " attacked you.*";
+        break;
+      case 1:
+        regex = "You notice (\\d+) gold crowns" + id + ".*";
+        break;
+      case 2:
+        regex = ".*\\bitem" + id + "\\b.*";
+        break;
+      case 3:
+        // top level alternations can't be prefiltered
+        regex = ".*(arrived|left) through door" + id + ".*|The door" + id + " opens\\.";
+        break;
+      default:
+        regex = "Your Experience is (\\d+)\\. Level " + id;
+        break;
+    }
+    return Trigger.newBuilder()
+        .setId(id)
+        .setExpectedColor(COLORS[id % COLORS.length])
+        .setTriggerRegex(regex)
+        .setCommand("say $0")
+        .build();
+  }
+
+  @Setup
+  public void createTriggers() {
+    ImmutableList.Builder<Trigger> builder = ImmutableList.builder();
+    ImmutableList.Builder<Pattern> patternBuilder = ImmutableList.builder();
+    for (int i = 0; i < triggerCount; ++i) {
+      Trigger trigger = createTrigger(i);
+      builder.add(trigger);
+      patternBuilder.add(Pattern.compile(trigger.getTriggerRegex()));
+    }
+    triggerProtos = builder.build();
+    patterns = patternBuilder.build();
+    triggers = Triggers.of(triggerProtos);
+    parallelTriggers =
+        Triggers.builder(triggerProtos)
+            .setParallelism(ForkJoinPool.commonPool(), /* parallelThreshold= */ 64)
+            .build();
+  }
+
+  @Benchmark
+  public void processLine(Blackhole blackhole) {
+    for (ParsedAnsiText line : LINES) {
+      blackhole.consume(triggers.processLine(line, noopCommand));
+    }
+  }
+
+  @Benchmark
+  public void processLineInParallel(Blackhole blackhole) {
+    for (ParsedAnsiText line : LINES) {
+      blackhole.consume(parallelTriggers.processLine(line, noopCommand));
+    }
+  }
+
+  /** The original algorithm, a regex match and proto color lookup for every trigger. */
+  @Benchmark
+  public void linearScan(Blackhole blackhole) {
+    for (ParsedAnsiText line : LINES) {
+      boolean foundMatch = false;
+      AnsiColor foregroundColor = line.getFirstStyleOrDefault().getForegroundColor();
+      for (int i = 0; i < triggerProtos.size(); ++i) {
+        Trigger trigger = triggerProtos.get(i);
+        if (trigger.getExpectedColor() != Color.ANY
+            && trigger.getExpectedColor() != Color.valueOf(foregroundColor.name())) {
+          continue;
+        }
+
+        Matcher matcher = patterns.get(i).matcher(line.getText());
+        if (matcher.matches()) {
+          foundMatch = true;
+          noopCommand.accept(trigger.getId(), matcher.replaceAll(trigger.getCommand()));
+        }
+      }
+      blackhole.consume(foundMatch);
+    }
+  }
+}
@@ -9,6 +9,9 @@ import com.jeffreys.common.ansi.AnsiColorParser.AnsiAttribute;
 import com.jeffreys.common.ansi.AnsiColorParser.AnsiCharacterAttribute;
 import com.jeffreys.common.ansi.AnsiColorParser.AnsiColor;
 import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiText;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiConsumer;
 import org.junit.Rule;
 import org.junit.Test;
@@ -120,4 +123,177 @@ public class TriggersTest {
 
     verify(command).accept(1, "Experience is 12828 dude.\r\n");
   }
+
+  @Test
+  public void prefilteredAndUnfilteredTriggers_fireInOrder() {
+    Triggers triggers =
+        Triggers.of(
+            ImmutableList.of(
+                Trigger.newBuilder()
+                    .setId(1)
+                    .setTriggerRegex(".*orc.*")
+                    .setCommand("first")
+                    .setExpectedColor(Color.ANY)
+                    .build(),
+                Trigger.newBuilder()
+                    .setId(2)
+                    .setTriggerRegex("(.*) (attacked|hit) you(.*)")
+                    .setCommand("$1 again")
+                    .setExpectedColor(Color.ANY)
+                    .build(),
+                Trigger.newBuilder()
+                    .setId(3)
+                    .setTriggerRegex("The (\\w+) attacked you.*")
+                    .setCommand("kill $1")
+                    .setExpectedColor(Color.ANY)
+                    .build(),
+                Trigger.newBuilder()
+                    .setId(4)
+                    .setTriggerRegex(".*dragon.*")
+                    .setCommand("flee")
+                    .setExpectedColor(Color.ANY)
+                    .build()));
+    List<String> commands = new ArrayList<>();
+
+    assertThat(
+            triggers.processLine(
+                ParsedAnsiText.create("The orc attacked you with a club!"),
+                (id, text) -> commands.add(id + ":" + text)))
+        .isTrue();
+
+    assertThat(commands).containsExactly("1:first", "2:The orc again", "3:kill orc").inOrder();
+  }
+
+  @Test
+  public void colorAndAnyTriggers_fireInOrder() {
+    ImmutableList.Builder<Trigger> builder = ImmutableList.builder();
+    Color[] colors = {Color.RED, Color.ANY, Color.GREEN, Color.RED, Color.ANY, Color.RED};
+    for (int i = 0; i < colors.length; ++i) {
+      builder.add(
+          Trigger.newBuilder()
+              .setId(i)
+              .setTriggerRegex(".*orc.*")
+              .setCommand("kill")
+              .setExpectedColor(colors[i])
+              .build());
+    }
+    Triggers triggers = Triggers.of(builder.build());
+    List<Integer> ids = new ArrayList<>();
+
+    assertThat(
+            triggers.processLine(
+                ParsedAnsiText.create(
+                    "An orc is here.",
+                    AnsiCharacterAttribute.create(
+                        '\0', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE)),
+                (id, text) -> ids.add(id)))
+        .isTrue();
+
+    assertThat(ids).containsExactly(0, 1, 3, 4, 5).inOrder();
+  }
+
+  @Test
+  public void parallelTriggers_matchSequentialOrder() {
+    ImmutableList.Builder<Trigger> builder = ImmutableList.builder();
+    for (int i = 0; i < 200; ++i) {
+      builder.add(
+          Trigger.newBuilder()
+              .setId(i)
+              .setTriggerRegex(i % 3 == 0 ? ".*(orc|goblin).*" : ".*monster" + (i % 7) + ".*")
+              .setCommand(i % 3 == 0 ? "kill $1" : "hit " + i)
+              .setExpectedColor(i % 2 == 0 ? Color.ANY : Color.RED)
+              .build());
+    }
+    ImmutableList<Trigger> triggerList = builder.build();
+    ParsedAnsiText line =
+        ParsedAnsiText.create(
+            "An orc and monster3 are here.",
+            AnsiCharacterAttribute.create(
+                '\0', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE));
+    List<String> expected = new ArrayList<>();
+    List<String> actual = new ArrayList<>();
+    ForkJoinPool pool = new ForkJoinPool(4);
+
+    try {
+      assertThat(Triggers.of(triggerList).processLine(line, (id, text) -> expected.add(text)))
+          .isTrue();
+      assertThat(
+              Triggers.builder(triggerList)
+                  .setParallelism(pool, /* parallelThreshold= */ 2)
+                  .build()
+                  .processLine(line, (id, text) -> actual.add(text)))
+          .isTrue();
+    } finally {
+      pool.shutdown();
+    }
+
+    assertThat(actual).containsExactlyElementsIn(expected).inOrder();
+    assertThat(actual).hasSize(86);
+  }
+
+  @Test
+  public void cache_replaysMatchesForRepeatedLines() {
+    Triggers triggers =
+        Triggers.builder(
+                ImmutableList.of(
+                    Trigger.newBuilder()
+                        .setId(1)
+                        .setTriggerRegex(".*Your Experience is (\\d+)\\..*")
+                        .setCommand("Experience is $1")
+                        .setExpectedColor(Color.ANY)
+                        .build()))
+            .setCacheSize(/* cacheSize= */ 1)
+            .build();
+    ParsedAnsiText line = ParsedAnsiText.create("Your Experience is 12828.");
+    List<String> commands = new ArrayList<>();
+
+    assertThat(triggers.processLine(line, (id, text) -> commands.add(id + ":" + text))).isTrue();
+    assertThat(triggers.processLine(line, (id, text) -> commands.add(id + ":" + text))).isTrue();
+    assertThat(triggers.processLine(ParsedAnsiText.create("nope"), command)).isFalse();
+    assertThat(triggers.processLine(line, (id, text) -> commands.add(id + ":" + text))).isTrue();
+
+    assertThat(commands)
+        .containsExactly(
+            "1:Experience is 12828", "1:Experience is 12828", "1:Experience is 12828");
+    assertThat(triggers.getCacheStats().hitCount()).isEqualTo(1);
+    assertThat(triggers.getCacheStats().missCount()).isEqualTo(3);
+    assertThat(triggers.getCacheStats().evictionCount()).isEqualTo(2);
+    verifyNoInteractions(command);
+  }
+
+  @Test
+  public void cache_distinguishesColors() {
+    Triggers triggers =
+        Triggers.builder(
+                ImmutableList.of(
+                    Trigger.newBuilder()
+                        .setId(1)
+                        .setTriggerRegex(".*haha.*")
+                        .setCommand("red haha")
+                        .setExpectedColor(Color.RED)
+                        .build()))
+            .setCacheSize(/* cacheSize= */ 16)
+            .build();
+
+    assertThat(triggers.processLine(ParsedAnsiText.create("haha"), command)).isFalse();
+    assertThat(
+            triggers.processLine(
+                ParsedAnsiText.create(
+                    "haha",
+                    AnsiCharacterAttribute.create(
+                        '\0', AnsiColor.RED, AnsiColor.BLACK, AnsiAttribute.NONE)),
+                command))
+        .isTrue();
+
+    verify(command).accept(1, "red haha");
+  }
+
+  @Test
+  public void noCache_hasEmptyStats() {
+    Triggers triggers = Triggers.of(ImmutableList.of());
+
+    triggers.processLine(ParsedAnsiText.create("haha"), command);
+
+    assertThat(triggers.getCacheStats().requestCount()).isEqualTo(0);
+  }
 }
@@ -0,0 +1,81 @@
+package com.jeffreys.scripts.tascript;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.io.CharStreams;
+import com.jeffreys.common.io.JournalWriter;
+import com.jeffreys.common.io.SegmentedLog.Direction;
+import com.jeffreys.common.io.SessionJournal;
+import java.io.PrintWriter;
+import java.time.Clock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CommandLatencyTrackerTest {
+
+  private final SessionJournal journal = new SessionJournal(/* capacity= */ 16, Clock.systemUTC());
+  private final CommandLatencyTracker latencyTracker = new CommandLatencyTracker();
+
+  private void record(Direction direction, String text) throws Exception {
+    char[] chars = text.toCharArray();
+    journal.record(direction, chars, 0, chars.length);
+  }
+
+  @Test
+  public void commandsAreAnsweredByTheNextLine() throws Exception {
+    journal.addListener(latencyTracker);
+
+    record(Direction.INBOUND, "You're in the arena.");
+    record(Direction.OUTBOUND, "a orc");
+    record(Direction.OUTBOUND, "a bear");
+    record(Direction.OUTBOUND, "c motu orc");
+    record(Direction.INBOUND, "You attacked the orc!");
+    record(Direction.INBOUND, "The orc attacked you!");
+    record(Direction.OUTBOUND, "he");
+
+    assertThat(latencyTracker.getLatencies().keySet()).containsExactly("a", "c", "he");
+    assertThat(latencyTracker.getLatencies().get("a").getCount()).isEqualTo(2);
+    assertThat(latencyTracker.getLatencies().get("c").getCount()).isEqualTo(1);
+    // still waiting for a response
+    assertThat(latencyTracker.getLatencies().get("he").getCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void linesReceivedBeforeACommandIsSent_doNotAnswerIt() throws Exception {
+    journal.addListener(latencyTracker);
+    PrintWriter output =
+        new PrintWriter(
+            new JournalWriter(journal, Direction.OUTBOUND, CharStreams.nullWriter()));
+
+    // queued, but not sent until the script flushes
+    output.print("a orc\r\n");
+    record(Direction.INBOUND, "The orc attacked you!");
+    output.flush();
+
+    assertThat(latencyTracker.getLatencies().get("a").getCount()).isEqualTo(0);
+
+    record(Direction.INBOUND, "You attacked the orc!");
+
+    assertThat(latencyTracker.getLatencies().get("a").getCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void manyKindsOfCommands_areCountedSeparately() throws Exception {
+    journal.addListener(latencyTracker);
+
+    // enough kinds of commands to grow the table a few times
+    for (int round = 0; round < 2; ++round) {
+      for (int i = 0; i < 100; ++i) {
+        record(Direction.OUTBOUND, "c" + i + " orc");
+        record(Direction.INBOUND, "You cast a spell.");
+      }
+    }
+
+    assertThat(latencyTracker.getLatencies()).hasSize(100);
+    for (int i = 0; i < 100; ++i) {
+      assertThat(latencyTracker.getLatencies().get("c" + i).getCount()).isEqualTo(2);
+    }
+  }
+}
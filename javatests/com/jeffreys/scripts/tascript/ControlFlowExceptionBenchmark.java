@@ -0,0 +1,133 @@
+package com.jeffreys.scripts.tascript;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.CharStreams;
+import com.google.common.io.Resources;
+import com.jeffreys.common.queue.NonBlockingSupplier;
+import com.jeffreys.scripts.common.Triggers;
+import com.jeffreys.scripts.tascript.TAScript.DeadException;
+import com.jeffreys.scripts.tascript.TAScript.ResumeableException;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Clock;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link TAScript#getNextLine} replaying recorded screens, where many lines end in a
+ * control flow exception, and compares throwing the cached stackless exceptions against throwing a
+ * new exception with a stack trace each time.
+ *
+ * <p>{@link #replayScreensWithNewExceptions} estimates the cost before the exceptions were cached,
+ * by also throwing a new exception as deep as the script's stack for every one caught.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ControlFlowExceptionBenchmark {
+  private static final String SCREENS = "com/jeffreys/common/ansi/testdata/tele_arena_screens.txt";
+  /** How deep the script's stack typically is when a line is preprocessed. */
+  private static final int STACK_DEPTH = 20;
+
+  private ImmutableList<ReceivedLine> lines;
+  private TAScript tascript;
+  private int nextLine;
+
+  @Setup
+  public void createScript() throws IOException {
+    String screens = Resources.toString(Resources.getResource(SCREENS), ISO_8859_1);
+    ReceivedLine.Parser parser = new ReceivedLine.Parser();
+    ImmutableList.Builder<ReceivedLine> builder = ImmutableList.builder();
+    for (String line : Splitter.on("\r\n").split(screens)) {
+      builder.add(parser.parse(line));
+    }
+    lines = builder.build();
+
+    NonBlockingSupplier<ReceivedLine> lineSupplier =
+        timeout -> lines.get(nextLine++ % lines.size());
+    PrintWriter nullWriter = new PrintWriter(CharStreams.nullWriter());
+    tascript =
+        new TAScript(
+            lineSupplier,
+            nullWriter,
+            Configuration.newBuilder().setUsername("Super Conductor").build(),
+            new Movements(ImmutableList.of("down")),
+            Triggers.of(ImmutableList.of()),
+            Clock.systemUTC(),
+            nullWriter,
+            duration -> {});
+  }
+
+  @Benchmark
+  public void replayScreens(Blackhole blackhole) {
+    for (int i = 0; i < lines.size(); ++i) {
+      try {
+        blackhole.consume(tascript.getNextLine());
+      } catch (ResumeableException | DeadException ex) {
+        blackhole.consume(ex);
+      }
+    }
+  }
+
+  @Benchmark
+  public void replayScreensWithNewExceptions(Blackhole blackhole) {
+    for (int i = 0; i < lines.size(); ++i) {
+      try {
+        blackhole.consume(tascript.getNextLine());
+      } catch (ResumeableException | DeadException ex) {
+        try {
+          throwFrom(STACK_DEPTH, /* cached= */ false);
+        } catch (RuntimeException newException) {
+          blackhole.consume(newException);
+        }
+      }
+    }
+  }
+
+  @Benchmark
+  public Object throwCachedException() {
+    try {
+      throwFrom(STACK_DEPTH, /* cached= */ true);
+    } catch (RuntimeException ex) {
+      return ex;
+    }
+    return null;
+  }
+
+  @Benchmark
+  public Object throwNewException() {
+    try {
+      throwFrom(STACK_DEPTH, /* cached= */ false);
+    } catch (RuntimeException ex) {
+      return ex;
+    }
+    return null;
+  }
+
+  private static void throwFrom(int depth, boolean cached) {
+    if (depth > 0) {
+      throwFrom(depth - 1, cached);
+      return;
+    }
+    if (cached) {
+      throw TAScript.ArrivalException.INSTANCE;
+    }
+    throw new RuntimeException("Something has arrived");
+  }
+}
@@ -0,0 +1,55 @@
+package com.jeffreys.scripts.tascript;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.jeffreys.scripts.tascript.LineClassifier.Phrase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class LineClassifierTest {
+
+  private final LineClassifier lineClassifier = new LineClassifier();
+
+  @Test
+  public void classify_noPhrases() {
+    lineClassifier.classify("You're in the arena.");
+
+    assertThat(lineClassifier.matchedAny()).isFalse();
+    for (Phrase phrase : Phrase.values()) {
+      assertThat(lineClassifier.indexOf(phrase)).isEqualTo(-1);
+    }
+  }
+
+  @Test
+  public void classify_reportsFirstOffsetLikeIndexOf() {
+    String line = "Bob just discharged a spell and just discharged another!";
+
+    lineClassifier.classify(line);
+
+    assertThat(lineClassifier.matchedAny()).isTrue();
+    assertThat(lineClassifier.indexOf(Phrase.JUST_DISCHARGED))
+        .isEqualTo(line.indexOf(" just discharged "));
+    assertThat(lineClassifier.indexOf(Phrase.DISCHARGED)).isEqualTo(line.indexOf(" discharged "));
+    assertThat(lineClassifier.contains(Phrase.ATTACKED_YOU_WITH)).isFalse();
+  }
+
+  @Test
+  public void classify_startsWithAndIsExactly() {
+    lineClassifier.classify("The orc attacked you with a club!");
+
+    assertThat(lineClassifier.startsWith(Phrase.THE)).isTrue();
+    assertThat(lineClassifier.indexOf(Phrase.ATTACKED_YOU_WITH)).isEqualTo(7);
+
+    lineClassifier.classify("You suddenly feel very vulnerable!");
+
+    assertThat(lineClassifier.isExactly(Phrase.FEEL_VULNERABLE)).isTrue();
+    assertThat(lineClassifier.contains(Phrase.THE)).isFalse();
+
+    lineClassifier.classify("You suddenly feel very vulnerable!!");
+
+    assertThat(lineClassifier.startsWith(Phrase.FEEL_VULNERABLE)).isTrue();
+    assertThat(lineClassifier.isExactly(Phrase.FEEL_VULNERABLE)).isFalse();
+  }
+}
@@ -0,0 +1,62 @@
+package com.jeffreys.scripts.tascript;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.jeffreys.common.ansi.AnsiColorParser;
+import com.jeffreys.common.ansi.AnsiColorParser.AnsiColor;
+import java.nio.charset.Charset;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ReceivedLineTest {
+
+  private static final Clock CLOCK = Clock.fixed(Instant.ofEpochMilli(1234), ZoneOffset.UTC);
+
+  private final ReceivedLine.Parser parser = new ReceivedLine.Parser(ISO_8859_1, CLOCK);
+
+  @Test
+  public void parse_keepsRawLine() {
+    String rawLine = "\u001B[1;31mThe orc attacked you with a club!";
+
+    ReceivedLine line = parser.parse(rawLine);
+
+    assertThat(line.getRawLine()).isEqualTo(rawLine);
+    assertThat(line.getParsedText()).isEqualTo(new AnsiColorParser().parseAnsi(rawLine));
+  }
+
+  @Test
+  public void parse_stampsWhenParsed() {
+    ReceivedLine line = parser.parse("You're in the arena.");
+
+    assertThat(line.getReceivedTime()).isEqualTo(Instant.ofEpochMilli(1234));
+  }
+
+  @Test
+  public void parse_bytes_matchesParsingDecodedLine() {
+    Charset cp437 = Charset.forName("IBM437");
+    String rawLine = "\u001B[1;36m\u2591\u2591 The wall is here.";
+    byte[] bytes = (rawLine + "junk").getBytes(cp437);
+
+    ReceivedLine line = new ReceivedLine.Parser(cp437, CLOCK).parse(bytes, rawLine.length());
+
+    assertThat(line).isEqualTo(parser.parse(rawLine));
+  }
+
+  @Test
+  public void parse_colorsCarryOverBetweenLines() {
+    ReceivedLine first = parser.parse("\u001B[1;32mYou're in the arena.");
+    ReceivedLine second = parser.parse("Obvious exits: north.");
+
+    assertThat(second.getParsedText().getText()).isEqualTo("Obvious exits: north.");
+    assertThat(second.getParsedText().getFirstStyleOrDefault().getForegroundColor())
+        .isEqualTo(AnsiColor.GREEN);
+    // earlier lines aren't affected by parsing later ones
+    assertThat(first.getParsedText().getText()).isEqualTo("You're in the arena.");
+  }
+}
@@ -0,0 +1,83 @@
+package com.jeffreys.scripts.tascript;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RoomOccupantTokenizerTest {
+  private final List<String> occupants = new ArrayList<>();
+
+  private void tokenizeMonsters(String text) {
+    RoomOccupantTokenizer.tokenizeMonsters(
+        text,
+        (line, start, end, count) -> {
+          assertThat(line).isSameInstanceAs(text);
+          occupants.add(count + ":" + line.subSequence(start, end));
+        });
+  }
+
+  private void tokenizePlayers(String text) {
+    RoomOccupantTokenizer.tokenizePlayers(
+        text,
+        (line, start, end) -> {
+          assertThat(line).isSameInstanceAs(text);
+          occupants.add(line.subSequence(start, end).toString());
+        });
+  }
+
+  @Test
+  public void tokenizeMonsters_reportsEachGroupInOrder() {
+    tokenizeMonsters("There are two cave bears, three wolves, an orc, and four dwarves here.");
+
+    assertThat(occupants).containsExactly("2:bear", "3:wol", "1:orc", "4:dwar").inOrder();
+  }
+
+  @Test
+  public void tokenizeMonsters_reportsDuplicateGroups() {
+    tokenizeMonsters("There are two orcs, a rat, and an orc here.");
+
+    assertThat(occupants).containsExactly("2:orc", "1:rat", "1:orc").inOrder();
+  }
+
+  @Test
+  public void tokenizeMonsters_malformed_skipsGroup() {
+    tokenizeMonsters("There are many orcs, a rat, and an orc here.");
+
+    assertThat(occupants).containsExactly("1:rat", "1:orc").inOrder();
+  }
+
+  @Test
+  public void tokenizeMonsters_empty_reportsNothing() {
+    tokenizeMonsters("");
+
+    assertThat(occupants).isEmpty();
+  }
+
+  @Test
+  public void tokenizePlayers_reportsNames() {
+    tokenizePlayers("Dwarven Lord, Star Lord, and Todd are here.");
+
+    assertThat(occupants).containsExactly("Dwarven Lord", "Star Lord", "Todd").inOrder();
+  }
+
+  @Test
+  public void tokenizePlayers_malformed_doesNotThrow() {
+    tokenizePlayers("Rush,");
+    tokenizePlayers("Rush and");
+    tokenizePlayers("");
+
+    assertThat(occupants).containsExactly("Rush", "");
+  }
+
+  @Test
+  public void regionEquals() {
+    assertThat(RoomOccupantTokenizer.regionEquals("Rush is here.", 0, 4, "Rush")).isTrue();
+    assertThat(RoomOccupantTokenizer.regionEquals("Rush is here.", 0, 4, "Rus")).isFalse();
+    assertThat(RoomOccupantTokenizer.regionEquals("Rush is here.", 0, 4, "Todd")).isFalse();
+  }
+}
@@ -0,0 +1,83 @@
+package com.jeffreys.scripts.tascript;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.common.truth.Truth8.assertThat;
+
+import java.time.Duration;
+import java.time.Instant;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class RoundSchedulerTest {
+  private static final Duration FALLBACK = Duration.ofSeconds(3);
+  private static final Instant START = Instant.EPOCH;
+
+  private final RoundScheduler scheduler = new RoundScheduler();
+
+  private static Instant at(long millis) {
+    return START.plusMillis(millis);
+  }
+
+  @Test
+  public void getDelay_unknownRoundTime_returnsFallback() {
+    scheduler.onDamageLine(at(0));
+
+    assertThat(scheduler.getRoundTime()).isEmpty();
+    assertThat(scheduler.getDelay(at(100), FALLBACK)).isEqualTo(FALLBACK);
+  }
+
+  @Test
+  public void onDamageLine_steadyRounds_learnsRoundTime() {
+    for (int round = 0; round < 5; ++round) {
+      scheduler.onDamageLine(at(round * 2000));
+      // a second hit in the same round
+      scheduler.onDamageLine(at(round * 2000 + 50));
+    }
+
+    assertThat(scheduler.getRoundTime()).hasValue(Duration.ofSeconds(2));
+    assertThat(scheduler.getJitter()).isEqualTo(Duration.ZERO);
+    // the last round started at 8000
+    assertThat(scheduler.getDelay(at(8500), FALLBACK)).isEqualTo(Duration.ofMillis(1500));
+    assertThat(scheduler.getDelay(at(10500), FALLBACK)).isEqualTo(Duration.ofMillis(1500));
+  }
+
+  @Test
+  public void onDamageLine_roundsWithoutDamage_dividesGap() {
+    scheduler.onDamageLine(at(0));
+    scheduler.onDamageLine(at(2000));
+    // two rounds missed
+    scheduler.onDamageLine(at(8000));
+
+    assertThat(scheduler.getRoundTime()).hasValue(Duration.ofSeconds(2));
+  }
+
+  @Test
+  public void onDamageLine_combatStopped_gapIgnored() {
+    scheduler.onDamageLine(at(0));
+    scheduler.onDamageLine(at(2000));
+    scheduler.onDamageLine(at(60_000));
+
+    assertThat(scheduler.getRoundTime()).hasValue(Duration.ofSeconds(2));
+    assertThat(scheduler.getDelay(at(60_500), FALLBACK)).isEqualTo(Duration.ofMillis(1500));
+  }
+
+  @Test
+  public void onDamageLine_irregularRounds_measuresJitter() {
+    scheduler.onDamageLine(at(0));
+    scheduler.onDamageLine(at(2000));
+    scheduler.onDamageLine(at(4400));
+
+    assertThat(scheduler.getJitter()).isEqualTo(Duration.ofMillis(100));
+    assertThat(scheduler.getRoundTime()).hasValue(Duration.ofMillis(2050));
+  }
+
+  @Test
+  public void getDelay_slowRounds_neverLongerThanFallback() {
+    scheduler.onDamageLine(at(0));
+    scheduler.onDamageLine(at(5000));
+
+    assertThat(scheduler.getDelay(at(5000), FALLBACK)).isEqualTo(FALLBACK);
+  }
+}
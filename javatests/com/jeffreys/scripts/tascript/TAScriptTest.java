@@ -3,6 +3,7 @@ package com.jeffreys.scripts.tascript;
 import static com.google.common.truth.Truth.assertThat;
 import static com.google.common.truth.Truth8.assertThat;
 import static com.jeffreys.junit.Exceptions.assertThrows;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
@@ -18,11 +19,14 @@ import com.google.inject.testing.fieldbinder.Bind;
 import com.google.inject.testing.fieldbinder.BoundFieldModule;
 import com.jeffreys.common.ansi.AnsiColorParser.ParsedAnsiText;
 import com.jeffreys.common.queue.NonBlockingSupplier;
+import com.jeffreys.junit.FakeClock;
 import com.jeffreys.scripts.common.Color;
 import com.jeffreys.scripts.common.Trigger;
 import com.jeffreys.scripts.common.Triggers;
 import com.jeffreys.scripts.tascript.Annotations.LogfilePrintWriter;
 import com.jeffreys.scripts.tascript.Annotations.OutputPrintWriter;
+import com.jeffreys.scripts.tascript.Configuration.WakeEvent;
+import com.jeffreys.scripts.tascript.TAScript.ArrivalException;
 import com.jeffreys.scripts.tascript.TAScript.AttackException;
 import com.jeffreys.scripts.tascript.TAScript.AttackType;
 import com.jeffreys.scripts.tascript.TAScript.DeadException;
@@ -32,6 +36,10 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 import javax.inject.Inject;
@@ -58,7 +66,7 @@ public class TAScriptTest {
   private final ByteArrayOutputStream logOutput = new ByteArrayOutputStream();
 
   @Bind(lazy = true)
-  private NonBlockingSupplier<String> lineSupplier;
+  private NonBlockingSupplier<ReceivedLine> lineSupplier;
 
   @Bind private final Movements movements = new Movements(ImmutableList.of("down"));
 
@@ -66,7 +74,8 @@ public class TAScriptTest {
   private Configuration configuration =
       Configuration.newBuilder().setUsername(USERNAME).setNumberOfPhysicalAttacks(1).build();
 
-  @Bind private final Clock clock = Clock.systemUTC();
+  @Bind(lazy = true)
+  private Clock clock = Clock.systemUTC();
 
   @Bind @OutputPrintWriter
   private final PrintWriter printWriterOutput = new PrintWriter(output, /* autoFlush= */ true);
@@ -331,6 +340,39 @@ public class TAScriptTest {
     assertThat(result.getCount()).isEqualTo(0);
   }
 
+  @Test
+  public void getTargets_noReply_resendsWhenTimeoutElapses() {
+    FakeClock fakeClock = new FakeClock();
+    clock = fakeClock;
+    String text =
+        YELLOW
+            + "You're in the north plaza.\r\n"
+            + RED
+            + "There is a huge rat here.\r\n"
+            + CYAN
+            + "There is nothing on the floor.\r\n";
+    Scanner scanner = new Scanner(new ByteArrayInputStream(text.getBytes(UTF_8)));
+    ReceivedLine.Parser parser = new ReceivedLine.Parser();
+    List<Duration> timeouts = new ArrayList<>();
+    lineSupplier =
+        timeout -> {
+          timeouts.add(timeout);
+          if (timeouts.size() == 1) {
+            // the first wait runs out without a reply
+            fakeClock.advance(timeout);
+            return null;
+          }
+          return parser.parse(scanner.nextLine());
+        };
+
+    TAScript.GetTargetResult result = tascript.get().getTargets();
+
+    assertThat(result.getCount()).isEqualTo(1);
+    assertThat(output.toString()).isEqualTo("\r\n\r\n");
+    assertThat(timeouts.get(0)).isEqualTo(Duration.ofSeconds(3));
+    assertThat(timeouts.get(1)).isEqualTo(Duration.ofSeconds(3));
+  }
+
   @Test
   public void getTargets_singleMonster() {
     String text =
@@ -541,6 +583,26 @@ public class TAScriptTest {
     assertThat(result.isPlayer()).isTrue();
   }
 
+  @Test
+  public void getTargets_playerListedTwice_countsOnce() {
+    String text =
+        YELLOW
+            + "You're in the north plaza.\r\n"
+            + MAGENTA
+            + "Rush, Paladine, and Rush are here.\r\n"
+            + CYAN
+            + "There is nothing on the floor.\r\n";
+    TAScript tascript = getScript(text);
+    tascript.addPlayerToAttack("Paladine");
+    tascript.addPlayerToAttack("Rush");
+
+    TAScript.GetTargetResult result = tascript.getTargets();
+
+    assertThat(result.getCount()).isEqualTo(2);
+    assertThat(result.getTarget()).isEqualTo("Paladine");
+    assertThat(result.isPlayer()).isTrue();
+  }
+
   @Test
   public void getTargets_noMonsters_withSinglePlayerToAttack_multiword() {
     String text =
@@ -735,6 +797,61 @@ public class TAScriptTest {
                 /* lowestHealthMember= */ "t"));
   }
 
+  @Test
+  public void getPlayerStatus_groupHealSpell_pipelinesQueries() {
+    configuration = configuration.toBuilder().setGroupHealSpell("kusamotumaru").build();
+
+    String text =
+        "Mana:         20 / 40\r\n"
+            + "Vitality:     30 / 31\r\n"
+            + "Status:       Healthy\r\n\r\n"
+            + "Your group currently consists of:\r\n"
+            + "  t                              (L) [HE: 99% ST:Ready]\r\n"
+            + "\r\n";
+    TAScript tascript = getScript(text);
+
+    TAScript.PlayerStatus result = tascript.getPlayerStatus();
+
+    assertThat(result.getMana()).isEqualTo(20);
+    assertThat(result.getGroupMemberStatus()).isPresent();
+    assertThat(output.toString()).isEqualTo("he\r\ngr\r\n");
+    // both queries were sent before waiting for either reply
+    assertThat(tascript.getOutputWrites()).isEqualTo(1L);
+  }
+
+  @Test
+  public void getPlayerStatus_groupHealSpell_resendsLaterQueriesInOrder() {
+    FakeClock fakeClock = new FakeClock();
+    clock = fakeClock;
+    configuration = configuration.toBuilder().setGroupHealSpell("kusamotumaru").build();
+
+    String text =
+        "Mana:         20 / 40\r\n"
+            + "Vitality:     30 / 31\r\n"
+            + "Status:       Healthy\r\n\r\n"
+            + "Your group currently consists of:\r\n"
+            + "  t                              (L) [HE: 99% ST:Ready]\r\n"
+            + "\r\n";
+    Scanner scanner = new Scanner(new ByteArrayInputStream(text.getBytes(UTF_8)));
+    ReceivedLine.Parser parser = new ReceivedLine.Parser();
+    List<Duration> timeouts = new ArrayList<>();
+    lineSupplier =
+        timeout -> {
+          timeouts.add(timeout);
+          if (timeouts.size() == 1) {
+            fakeClock.advance(timeout);
+            return null;
+          }
+          return parser.parse(scanner.nextLine());
+        };
+
+    TAScript.PlayerStatus result = tascript.get().getPlayerStatus();
+
+    assertThat(result.getVitality()).isEqualTo(30);
+    assertThat(result.getGroupMemberStatus()).isPresent();
+    assertThat(output.toString()).isEqualTo("he\r\ngr\r\nhe\r\ngr\r\n");
+  }
+
   @Test
   public void logFile_writesCorrectly() {
     String text =
@@ -805,6 +922,73 @@ public class TAScriptTest {
     verify(sleeper).sleep(any());
   }
 
+  @Test
+  public void checkHealth_adaptiveRoundTiming_usesWhenDamageLinesArrived() {
+    FakeClock fakeClock = new FakeClock();
+    clock = fakeClock;
+    configuration =
+        configuration.toBuilder()
+            .setAdaptiveRoundTiming(true)
+            .setHealPercentage(0.9)
+            .setCriticalPercentage(0.5)
+            .setHealSpell("motu")
+            .build();
+
+    // the reader stamps the damage lines two seconds apart while the script is paused, and the
+    // script only gets to them afterwards, all at once
+    ReceivedLine.Parser parser = new ReceivedLine.Parser(ISO_8859_1, fakeClock);
+    List<ReceivedLine> lines = new ArrayList<>();
+    lines.add(parser.parse("Your attack hit the orc for 10 damage!"));
+    for (int i = 0; i < 2; ++i) {
+      fakeClock.advance(Duration.ofSeconds(2));
+      lines.add(parser.parse("Your attack hit the orc for 10 damage!"));
+    }
+    lines.add(parser.parse("Mana:         0 / 0"));
+    lines.add(parser.parse("Vitality:     90 / 100"));
+    lines.add(parser.parse("Status:       Healthy"));
+    lines.add(parser.parse("Mana:         0 / 0"));
+    lines.add(parser.parse("Vitality:     91 / 100"));
+    lines.add(parser.parse("Status:       Healthy"));
+    fakeClock.advance(Duration.ofMillis(500));
+    Iterator<ReceivedLine> iterator = lines.iterator();
+    lineSupplier = timeout -> iterator.next();
+
+    tascript.get().checkHealth();
+
+    // the last round started at 4s with 2s rounds, and it is now 4.5s
+    assertThat(output.toString()).isEqualTo("he\r\nc motu Super\r\nhe\r\n");
+    verify(sleeper).sleep(Duration.ofMillis(1500));
+  }
+
+  @Test
+  public void checkHealth_lowHealthWakeEvent_usesReplyToPauseStatusQuery() {
+    FakeClock fakeClock = new FakeClock();
+    clock = fakeClock;
+    configuration =
+        configuration.toBuilder()
+            .setHealPercentage(0.9)
+            .setCriticalPercentage(0.5)
+            .setHealSpell("motu")
+            .addWakeEvents(WakeEvent.LOW_HEALTH)
+            .build();
+
+    ReceivedLine.Parser parser = new ReceivedLine.Parser();
+    List<ReceivedLine> lines = new ArrayList<>();
+    lines.add(parser.parse("Mana:         0 / 0"));
+    lines.add(parser.parse("Vitality:     71 / 100"));
+    lines.add(parser.parse("Status:       Healthy"));
+    // the reply to the pause's status query, which isn't low enough to end the pause
+    lines.add(parser.parse("Mana:         0 / 0"));
+    lines.add(parser.parse("Vitality:     92 / 100"));
+    lines.add(parser.parse("Status:       Healthy"));
+    lines.add(null);
+    lineSupplier = timeOutOnNull(lines, fakeClock);
+
+    tascript.get().checkHealth();
+
+    assertThat(output.toString()).isEqualTo("he\r\nc motu Super\r\nhe\r\n");
+  }
+
   @Test
   public void checkHealth_smallMultipleTimes() {
     configuration =
@@ -989,6 +1173,130 @@ public class TAScriptTest {
     verify(sleeper, never()).sleep(any());
   }
 
+  @Test
+  public void waitUntilReady_wakeEvent_endsPauseImmediately() {
+    configuration =
+        configuration.toBuilder()
+            .setWaitForAllMembers(false)
+            .addWakeEvents(WakeEvent.ARRIVAL)
+            .build();
+
+    String text =
+        "Your group currently consists of:\r\n"
+            + "  t                              (L) [HE:100% ST:Resting]\r\n"
+            + "  Super Conductor                (L) [HE:100% ST:Resting]\r\n"
+            + "\r\n"
+            + "Rush has just arrived from the north.\r\n";
+    TAScript script = getScript(text);
+
+    assertThrows(ArrivalException.class, script::waitUntilReady);
+
+    assertThat(output.toString()).isEqualTo("gr\r\n");
+    verify(sleeper, never()).sleep(any());
+  }
+
+  @Test
+  public void waitUntilReady_lowHealth_queriesStatusAndEndsPause() {
+    configuration =
+        configuration.toBuilder()
+            .setWaitForAllMembers(false)
+            .setMinimumMoveMana(0)
+            .setHealPercentage(0.5)
+            .addWakeEvents(WakeEvent.LOW_HEALTH)
+            .build();
+
+    String text =
+        "Your group currently consists of:\r\n"
+            + "  t                              (L) [HE:100% ST:Resting]\r\n"
+            + "  Super Conductor                (L) [HE:100% ST:Resting]\r\n"
+            + "\r\n"
+            // the reply to the status query sent by the pause
+            + "Mana:         0 / 0\r\n"
+            + "Vitality:     40 / 100\r\n"
+            + "Status:       Healthy\r\n"
+            + "Your group currently consists of:\r\n"
+            + "  t                              (L) [HE:100% ST:Ready]\r\n"
+            + "  Super Conductor                (L) [HE:100% ST:Ready]\r\n"
+            + "\r\n";
+    TAScript script = getScript(text);
+
+    script.waitUntilReady();
+
+    // nothing was sent since the pause's status query, so its reply is used instead of asking again
+    assertThat(output.toString()).isEqualTo("gr\r\nhe\r\ngr\r\n");
+    verify(sleeper, never()).sleep(any());
+  }
+
+  @Test
+  public void waitUntilReady_otherEvent_thrownAfterPause() {
+    configuration =
+        configuration.toBuilder()
+            .setWaitForAllMembers(false)
+            .addWakeEvents(WakeEvent.DEATH)
+            .build();
+
+    String text =
+        "Your group currently consists of:\r\n"
+            + "  t                              (L) [HE:100% ST:Resting]\r\n"
+            + "  Super Conductor                (L) [HE:100% ST:Resting]\r\n"
+            + "\r\n"
+            + "Rush has just arrived from the north.\r\n";
+    TAScript script = getScript(text);
+
+    assertThrows(ArrivalException.class, script::waitUntilReady);
+
+    assertThat(output.toString()).isEqualTo("gr\r\n");
+    // the rest of the pause is slept through, as without wake events
+    verify(sleeper).sleep(any());
+  }
+
+  @Test
+  public void waitUntilReady_worldState_reusesStatusFromCheckHealth() {
+    configuration =
+        configuration.toBuilder()
+            .setGroupHealSpell("kusamotumaru")
+            .setWaitForAllMembers(false)
+            .setWorldStateMaxAgeMilliseconds(60_000)
+            .build();
+
+    String text =
+        "Mana:         20 / 40\r\n"
+            + "Vitality:     30 / 31\r\n"
+            + "Status:       Healthy\r\n\r\n"
+            + "Your group currently consists of:\r\n"
+            + "  t                              (L) [HE: 99% ST:Ready]\r\n"
+            + "\r\n";
+    TAScript script = getScript(text);
+
+    script.checkHealth();
+    script.waitUntilReady();
+
+    assertThat(output.toString()).isEqualTo("he\r\ngr\r\n");
+    verify(sleeper, never()).sleep(any());
+  }
+
+  @Test
+  public void getTargets_worldState_playerToAttackAdded_queriesAgain() {
+    configuration = configuration.toBuilder().setWorldStateMaxAgeMilliseconds(60_000).build();
+
+    String room =
+        YELLOW
+            + "You're in the north plaza.\r\n"
+            + RED
+            + "There is a huge rat here.\r\n"
+            + CYAN
+            + "There is nothing on the floor.\r\n";
+    TAScript script = getScript(room + room);
+
+    assertThat(script.getTargets().getCount()).isEqualTo(1);
+    assertThat(script.getTargets().getCount()).isEqualTo(1);
+    assertThat(output.toString()).isEqualTo("\r\n");
+
+    script.addPlayerToAttack("Rush");
+    assertThat(script.getTargets().getCount()).isEqualTo(1);
+    assertThat(output.toString()).isEqualTo("\r\n\r\n");
+  }
+
   @Test
   public void waitUntilReady_notReadyYet() {
     configuration =
@@ -1212,6 +1520,84 @@ public class TAScriptTest {
     verify(sleeper).sleep(any());
   }
 
+  @Test
+  public void attackTargets_lowHealthWakeEvent_skipsOutdatedStatusReply() {
+    FakeClock fakeClock = new FakeClock();
+    clock = fakeClock;
+    configuration =
+        configuration.toBuilder()
+            .setHealPercentage(0.5)
+            .setCriticalPercentage(0.2)
+            .setLogOffCommand("=x\r\n")
+            .addWakeEvents(WakeEvent.LOW_HEALTH)
+            .build();
+
+    ReceivedLine.Parser parser = new ReceivedLine.Parser();
+    List<ReceivedLine> lines = new ArrayList<>();
+    for (int i = 0; i < 2; ++i) {
+      lines.add(parser.parse(YELLOW + "You're in the north plaza."));
+      lines.add(parser.parse(MAGENTA + "Rush is here."));
+      lines.add(parser.parse(CYAN + "There is nothing on the floor."));
+      if (i == 1) {
+        // the reply to the first pause's status query, only arriving after the next attack
+        lines.add(parser.parse("Mana:         19 / 300"));
+        lines.add(parser.parse("Vitality:     10 / 100"));
+        lines.add(parser.parse("Status:       Healthy"));
+      }
+      lines.add(parser.parse("Mana:         19 / 300"));
+      lines.add(parser.parse("Vitality:     90 / 100"));
+      lines.add(parser.parse("Status:       Healthy"));
+      // the pause's status query isn't answered before the pause ends
+      lines.add(null);
+    }
+    lines.add(parser.parse(YELLOW + "You're in the north plaza."));
+    lines.add(parser.parse(MAGENTA + "There is nobody here."));
+    lines.add(parser.parse(CYAN + "There is nothing on the floor."));
+    lineSupplier = timeOutOnNull(lines, fakeClock);
+
+    TAScript script = tascript.get();
+    script.addPlayerToAttack("Rush");
+    script.attackTargets();
+
+    // the outdated reply would have logged off, and only the pauses ask for the status twice
+    assertThat(output.toString())
+        .isEqualTo(
+            "\r\nremove Rush\r\na Rush\r\nhe\r\nhe\r\n"
+                + "\r\nremove Rush\r\na Rush\r\nhe\r\nhe\r\n"
+                + "\r\n");
+  }
+
+  @Test
+  public void attackTargets_coalescesCommandsUntilWaiting() {
+    configuration = configuration.toBuilder().setNumberOfPhysicalAttacks(2).build();
+
+    String text =
+        YELLOW
+            + "You're in the north plaza.\r\n"
+            + MAGENTA
+            + "Rush is here.\r\n"
+            + CYAN
+            + "There is nothing on the floor.\r\n"
+            + "\r\n"
+            + "Mana:         19 / 300\r\n"
+            + "Vitality:     49 / 100\r\n"
+            + "Status:       Healthy\r\n"
+            + "\r\n"
+            + "You're in the north plaza.\r\n"
+            + MAGENTA
+            + "There is nobody here.\r\n"
+            + CYAN
+            + "There is nothing on the floor.\r\n";
+
+    TAScript script = getScript(text);
+    script.addPlayerToAttack("Rush");
+    script.attackTargets();
+
+    // remove, both attacks and the status request go out together
+    assertThat(script.getCommandsSent()).isEqualTo(6L);
+    assertThat(script.getOutputWrites()).isEqualTo(3L);
+  }
+
   @Test
   public void attackTargets_attacksMonsterAndCastsSpell() {
     configuration =
@@ -2454,8 +2840,25 @@ public class TAScriptTest {
   private TAScript getScript(String input) {
     Scanner scanner = new Scanner(new ByteArrayInputStream(input.getBytes(UTF_8)));
 
-    lineSupplier = timeout -> scanner.nextLine();
+    ReceivedLine.Parser parser = new ReceivedLine.Parser();
+    lineSupplier = timeout -> parser.parse(scanner.nextLine());
 
     return tascript.get();
   }
+
+  /**
+   * Supplies {@code lines} in order, where null stands for nothing arriving, which advances {@code
+   * clock} by the whole timeout.
+   */
+  private static NonBlockingSupplier<ReceivedLine> timeOutOnNull(
+      List<ReceivedLine> lines, FakeClock clock) {
+    Iterator<ReceivedLine> iterator = lines.iterator();
+    return timeout -> {
+      ReceivedLine line = iterator.next();
+      if (line == null) {
+        clock.advance(timeout);
+      }
+      return line;
+    };
+  }
 }
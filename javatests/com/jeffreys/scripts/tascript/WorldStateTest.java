@@ -0,0 +1,97 @@
+package com.jeffreys.scripts.tascript;
+
+import static com.google.common.truth.Truth8.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import com.jeffreys.junit.FakeClock;
+import com.jeffreys.scripts.tascript.TAScript.GetTargetResult;
+import com.jeffreys.scripts.tascript.TAScript.GroupMemberStatus;
+import com.jeffreys.scripts.tascript.TAScript.PlayerStatus;
+import java.time.Duration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class WorldStateTest {
+  private static final GetTargetResult ROOM =
+      GetTargetResult.create("rat", /* count= */ 2, /* isPlayer= */ false);
+  private static final PlayerStatus VITALS =
+      PlayerStatus.builder().setVitality(30).setMaxVitality(31).setMana(20).setMaxMana(40).build();
+  private static final GroupMemberStatus GROUP_STATUS =
+      GroupMemberStatus.create(
+          ImmutableSet.of("t"),
+          /* youAreAready= */ true,
+          /* allAreReady= */ true,
+          /* lowestHealthPercentage= */ 1.0,
+          /* lowestHealthMember= */ "t");
+
+  private final FakeClock clock = new FakeClock();
+
+  @Test
+  public void get_fresh_returnsValues() {
+    WorldState worldState = new WorldState(clock, Duration.ofSeconds(1));
+    worldState.setRoom(ROOM);
+    worldState.setVitals(VITALS);
+    worldState.setGroupStatus(GROUP_STATUS);
+
+    clock.advance(Duration.ofMillis(999));
+
+    assertThat(worldState.getRoom()).hasValue(ROOM);
+    assertThat(worldState.getVitals()).hasValue(VITALS);
+    assertThat(worldState.getGroupStatus()).hasValue(GROUP_STATUS);
+  }
+
+  @Test
+  public void get_stale_returnsEmpty() {
+    WorldState worldState = new WorldState(clock, Duration.ofSeconds(1));
+    worldState.setVitals(VITALS);
+
+    clock.advance(Duration.ofSeconds(1));
+
+    assertThat(worldState.getVitals()).isEmpty();
+  }
+
+  @Test
+  public void get_nothingSeen_returnsEmpty() {
+    WorldState worldState = new WorldState(clock, Duration.ofSeconds(1));
+
+    assertThat(worldState.getRoom()).isEmpty();
+    assertThat(worldState.getVitals()).isEmpty();
+    assertThat(worldState.getGroupStatus()).isEmpty();
+  }
+
+  @Test
+  public void invalidate_discardsEverything() {
+    WorldState worldState = new WorldState(clock, Duration.ofSeconds(1));
+    worldState.setRoom(ROOM);
+    worldState.setVitals(VITALS);
+    worldState.setGroupStatus(GROUP_STATUS);
+
+    worldState.invalidate();
+
+    assertThat(worldState.getRoom()).isEmpty();
+    assertThat(worldState.getVitals()).isEmpty();
+    assertThat(worldState.getGroupStatus()).isEmpty();
+  }
+
+  @Test
+  public void invalidateRoom_keepsStatus() {
+    WorldState worldState = new WorldState(clock, Duration.ofSeconds(1));
+    worldState.setRoom(ROOM);
+    worldState.setVitals(VITALS);
+
+    worldState.invalidateRoom();
+
+    assertThat(worldState.getRoom()).isEmpty();
+    assertThat(worldState.getVitals()).hasValue(VITALS);
+  }
+
+  @Test
+  public void zeroMaxAge_disabled() {
+    WorldState worldState = new WorldState(clock, Duration.ZERO);
+    worldState.setVitals(VITALS);
+
+    assertThat(worldState.getVitals()).isEmpty();
+  }
+}